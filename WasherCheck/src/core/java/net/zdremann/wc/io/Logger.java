@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The logging calls used by code in the core source set, which is also compiled outside of
+ * Android. The app passes one backed by <code>android.util.Log</code>.
+ */
+public interface Logger {
+    /**
+     * Drops every message.
+     */
+    Logger NONE = new Logger() {
+        @Override
+        public void d(@NotNull String tag, @NotNull String message) {
+        }
+
+        @Override
+        public void i(@NotNull String tag, @NotNull String message) {
+        }
+
+        @Override
+        public void w(@NotNull String tag, @NotNull String message) {
+        }
+    };
+
+    void d(@NotNull String tag, @NotNull String message);
+
+    void i(@NotNull String tag, @NotNull String message);
+
+    void w(@NotNull String tag, @NotNull String message);
+}
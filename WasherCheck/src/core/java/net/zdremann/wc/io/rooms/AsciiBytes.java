@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Comparisons on ASCII text held in byte arrays, for the parsers that read responses as bytes
+ * instead of decoding them into strings
+ */
+final class AsciiBytes {
+    private AsciiBytes() {
+    }
+
+    @NotNull
+    static byte[] of(@NotNull String text) {
+        final byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) text.charAt(i);
+        return bytes;
+    }
+
+    static boolean equals(@NotNull byte[] bytes, int length, @NotNull byte[] expected) {
+        if (length != expected.length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != expected[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param lowerCase ASCII only, in lower case
+     */
+    static boolean equalsIgnoreCase(@NotNull byte[] bytes, int length, @NotNull byte[] lowerCase) {
+        return length == lowerCase.length && regionMatchesIgnoreCase(bytes, 0, lowerCase);
+    }
+
+    /**
+     * @param lowerCase ASCII only, in lower case
+     */
+    static boolean containsIgnoreCase(
+          @NotNull byte[] bytes, int length, @NotNull byte[] lowerCase) {
+        for (int i = 0; i + lowerCase.length <= length; i++) {
+            if (regionMatchesIgnoreCase(bytes, i, lowerCase))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param lowerCase ASCII only, in lower case
+     */
+    static boolean regionMatchesIgnoreCase(
+          @NotNull byte[] bytes, int offset, @NotNull byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            if (toLowerCase(bytes[offset + i]) != lowerCase[i])
+                return false;
+        }
+        return true;
+    }
+
+    static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Strips the parts of an eSuds page that keep it from being read as XML
+ * (<code>xmlns</code> attributes, <code>&lt;!DOCTYPE&gt;</code>, <code>&lt;script&gt;</code>
+ * blocks and <code>&amp;nbsp;</code>) while the page is still being read.
+ * <p>
+ * Only a few characters of lookahead are ever held, so the parser can start on the first rows
+ * before the download has finished.
+ */
+class EsudsHtmlFilterReader extends FilterReader {
+    private static final char[] XMLNS = "xmlns=\"".toCharArray();
+    private static final char[] DOCTYPE = "<!doctype".toCharArray();
+    private static final char[] SCRIPT_START = "<script".toCharArray();
+    private static final char[] SCRIPT_END = "</script>".toCharArray();
+    private static final char[] NBSP = "&nbsp;".toCharArray();
+    private static final int MAX_LOOKAHEAD = 9;
+
+    private static final int STATE_TEXT = 0;
+    private static final int STATE_IN_XMLNS = 1;
+    private static final int STATE_IN_DOCTYPE = 2;
+    private static final int STATE_IN_SCRIPT_TAG = 3;
+    private static final int STATE_IN_SCRIPT_BODY = 4;
+
+    private final char[] mBuffer = new char[4 * 1024];
+    private int mPosition = 0;
+    private int mLimit = 0;
+    private boolean mEndOfInput = false;
+    private int mState = STATE_TEXT;
+
+    public EsudsHtmlFilterReader(@NotNull Reader in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        char[] single = new char[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0];
+    }
+
+    @Override
+    public int read(@NotNull char[] destination, int offset, int length) throws IOException {
+        if (length == 0)
+            return 0;
+
+        int written = 0;
+        while (written == 0) {
+            if (!ensureAvailable(1))
+                return -1;
+            written = filter(destination, offset, length);
+        }
+        return written;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final char[] discard = new char[(int) Math.min(n, mBuffer.length)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(discard, 0, (int) Math.min(n - skipped, discard.length));
+            if (read == -1)
+                break;
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return mPosition < mLimit || in.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    /**
+     * Copies as much filtered text as possible from the buffer into <code>destination</code>.
+     * Stops early when a possible match needs more input than is buffered.
+     */
+    private int filter(@NotNull char[] destination, int offset, int length) throws IOException {
+        final char[] buffer = mBuffer;
+        int written = 0;
+
+        scan:
+        while (written < length && mPosition < mLimit) {
+            final char c = buffer[mPosition];
+            switch (mState) {
+            case STATE_TEXT:
+                if (c != '<' && c != '&' && c != 'x' && c != 'X') {
+                    destination[offset + written++] = c;
+                    mPosition++;
+                    break;
+                }
+                if (mLimit - mPosition < MAX_LOOKAHEAD && !mEndOfInput)
+                    break scan;
+
+                if (matches(XMLNS)) {
+                    mPosition += XMLNS.length;
+                    mState = STATE_IN_XMLNS;
+                } else if (matches(DOCTYPE)) {
+                    mPosition += DOCTYPE.length;
+                    mState = STATE_IN_DOCTYPE;
+                } else if (matches(SCRIPT_START)) {
+                    mPosition += SCRIPT_START.length;
+                    mState = STATE_IN_SCRIPT_TAG;
+                } else if (matches(NBSP)) {
+                    mPosition += NBSP.length;
+                } else {
+                    destination[offset + written++] = c;
+                    mPosition++;
+                }
+                break;
+            case STATE_IN_XMLNS:
+                mPosition++;
+                if (c == '"')
+                    mState = STATE_TEXT;
+                break;
+            case STATE_IN_DOCTYPE:
+                mPosition++;
+                if (c == '>')
+                    mState = STATE_TEXT;
+                break;
+            case STATE_IN_SCRIPT_TAG:
+                mPosition++;
+                if (c == '>')
+                    mState = STATE_IN_SCRIPT_BODY;
+                break;
+            case STATE_IN_SCRIPT_BODY:
+                if (c != '<') {
+                    mPosition++;
+                    break;
+                }
+                if (mLimit - mPosition < SCRIPT_END.length && !mEndOfInput)
+                    break scan;
+
+                if (matches(SCRIPT_END)) {
+                    mPosition += SCRIPT_END.length;
+                    mState = STATE_TEXT;
+                } else {
+                    mPosition++;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown state " + mState);
+            }
+        }
+
+        if (written == 0)
+            fill();
+
+        return written;
+    }
+
+    /**
+     * Case-insensitively compares the buffered input at the current position against
+     * <code>lowerCaseToken</code>.
+     */
+    private boolean matches(@NotNull char[] lowerCaseToken) {
+        if (mLimit - mPosition < lowerCaseToken.length)
+            return false;
+        for (int i = 0; i < lowerCaseToken.length; i++) {
+            if (Character.toLowerCase(mBuffer[mPosition + i]) != lowerCaseToken[i])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean ensureAvailable(int count) throws IOException {
+        while (mLimit - mPosition < count && !mEndOfInput)
+            fill();
+        return mLimit - mPosition >= count;
+    }
+
+    /**
+     * Moves any unread characters to the front of the buffer and reads more input after them.
+     */
+    private void fill() throws IOException {
+        if (mEndOfInput)
+            return;
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        }
+        int read = in.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read == -1)
+            mEndOfInput = true;
+        else
+            mLimit += read;
+    }
+}
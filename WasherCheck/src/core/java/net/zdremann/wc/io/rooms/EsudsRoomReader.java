@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import net.zdremann.wc.io.Logger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+import static net.zdremann.wc.io.rooms.MachineSink.*;
+
+/**
+ * Reads the machine table out of an eSuds room page that has already been through
+ * {@link EsudsHtmlFilterReader}. Nothing here depends on Android, so the same code can be run and
+ * measured on a plain JVM.
+ * <p>
+ * Machines are handed to a {@link MachineSink} as they are read.
+ */
+public class EsudsRoomReader {
+    private static final String TAG = "EsudsRoomReader";
+    private static final long ONE_MINUTE = 60000;
+
+    @NotNull
+    private final Logger mLogger;
+
+    public EsudsRoomReader(@NotNull Logger logger) {
+        mLogger = logger;
+    }
+
+    /**
+     * Reads every machine row from <code>parser</code>, which must already have its input set.
+     */
+    public void readMachines(
+          @NotNull XmlPullParser parser,
+          @NotNull MachineSink sink) throws XmlPullParserException, IOException {
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG && "tr".equals(parser.getName())) {
+                String classAttr = parser.getAttributeValue(null, "class");
+                if ("even".equals(classAttr) || "odd".equals(classAttr))
+                    readMachine(parser, sink);
+            }
+        }
+    }
+
+    /**
+     * Reads one row straight into <code>sink</code>
+     */
+    protected void readMachine(
+          @NotNull XmlPullParser parser,
+          @NotNull MachineSink sink) throws XmlPullParserException, IOException {
+        parser.require(XmlPullParser.START_TAG, "", "tr");
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, "", "td");
+        int machineId = readId(parser);
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, "", "td");
+        int machineNum = readNum(parser);
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, "", "td");
+        int machineType = readType(parser);
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, "", "td");
+        int machineStatus = readStatus(parser);
+
+        parser.nextTag();
+        parser.require(XmlPullParser.START_TAG, "", "td");
+        long machineTimeRemaining = readTimeRemaining(parser);
+
+        parser.nextTag();
+        parser.require(XmlPullParser.END_TAG, "", "tr");
+        sink.add(machineType, machineNum, machineId, machineStatus, machineTimeRemaining);
+    }
+
+    protected int readId(
+          @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
+        int eventType = parser.next();
+        int value = -1;
+        while (eventType != XmlPullParser.END_TAG || !"td".equals(parser.getName())) {
+            if (eventType == XmlPullParser.START_TAG && "input".equals(parser.getName())) {
+                try {
+                    value = Integer.parseInt(parser.getAttributeValue(null, "value"));
+                } catch (NumberFormatException nfe) {
+                    value = -1;
+                }
+            }
+            eventType = parser.next();
+        }
+
+        return value;
+    }
+
+    protected int readNum(
+          @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
+        int num;
+        try {
+            num = Integer.parseInt(parser.nextText());
+        } catch (NumberFormatException nfe) {
+            num = -1;
+        }
+
+        return num;
+    }
+
+    protected int readStatus(
+          @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
+        parser.nextTag();
+
+        parser.require(XmlPullParser.START_TAG, null, "font");
+
+        final String text = parser.nextText();
+
+        parser.nextTag();
+
+        parser.require(XmlPullParser.END_TAG, null, "td");
+        return statusOf(text);
+    }
+
+    protected long readTimeRemaining(
+          @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
+        final String text = parser.nextText();
+        long time;
+        if (isEmpty(text)) {
+            time = NO_TIME_REMAINING;
+        } else {
+            try {
+                time = (long) (Double.parseDouble(text) * ONE_MINUTE);
+            } catch (NumberFormatException nfe) {
+                mLogger.d(TAG, "Unknown Time Remaining: " + text);
+                time = NO_TIME_REMAINING;
+            }
+        }
+
+        return time;
+    }
+
+    protected int readType(
+          @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
+        return typeOf(parser.nextText());
+    }
+
+    static int statusOf(@NotNull String text) {
+        if ("available".equalsIgnoreCase(text))
+            return STATUS_AVAILABLE;
+        else if ("cycle complete".equalsIgnoreCase(text))
+            return STATUS_CYCLE_COMPLETE;
+        else if ("in use".equalsIgnoreCase(text))
+            return STATUS_IN_USE;
+        else if ("unavailable".equalsIgnoreCase(text))
+            return STATUS_UNAVAILABLE;
+        else
+            return STATUS_UNKNOWN;
+    }
+
+    static int typeOf(@NotNull String text) {
+        if (text.contains("Washer") || text.contains("washer"))
+            return TYPE_WASHER;
+        else if (text.contains("Dryer") || text.contains("dryer"))
+            return TYPE_DRYER;
+        else
+            return TYPE_UNKNOWN;
+    }
+
+    /**
+     * Stands in for <code>TextUtils.isEmpty</code>, which is not available off Android
+     */
+    private static boolean isEmpty(@Nullable CharSequence text) {
+        return text == null || text.length() == 0;
+    }
+}
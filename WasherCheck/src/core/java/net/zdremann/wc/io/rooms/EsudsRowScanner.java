@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import net.zdremann.wc.io.Logger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static net.zdremann.wc.io.rooms.AsciiBytes.isWhitespace;
+import static net.zdremann.wc.io.rooms.MachineSink.*;
+
+/**
+ * Reads the machine table straight from the bytes of an eSuds room page, as an alternative to
+ * {@link EsudsHtmlFilterReader} and {@link EsudsRoomReader}. The page is not sanitized or
+ * tokenized as XML; only <code>&lt;tr class="even"&gt;</code> and
+ * <code>&lt;tr class="odd"&gt;</code> rows are looked at, and the text of their five cells is
+ * copied into a reused buffer and read in place.
+ * <p>
+ * The scanner is lenient the way browsers are. Tags inside a cell are ignored, cells and rows do
+ * not need to be closed, and comments, declarations and script blocks are skipped. A row with
+ * fewer than five cells is dropped with a warning, rather than failing the whole room.
+ */
+public final class EsudsRowScanner {
+    private static final String TAG = "EsudsRowScanner";
+    private static final long ONE_MINUTE = 60000;
+
+    private static final int EOF = -1;
+    private static final int START_TAG = 1;
+    private static final int END_TAG = 2;
+
+    private static final int CELL_ID = 0;
+    private static final int CELL_NUMBER = 1;
+    private static final int CELL_TYPE = 2;
+    private static final int CELL_STATUS = 3;
+    private static final int CELL_TIME_REMAINING = 4;
+    private static final int CELL_COUNT = 5;
+
+    private static final byte[] TR = AsciiBytes.of("tr");
+    private static final byte[] TD = AsciiBytes.of("td");
+    private static final byte[] TABLE = AsciiBytes.of("table");
+    private static final byte[] INPUT = AsciiBytes.of("input");
+    private static final byte[] SCRIPT = AsciiBytes.of("script");
+    private static final byte[] STYLE = AsciiBytes.of("style");
+    private static final byte[] CLASS = AsciiBytes.of("class");
+    private static final byte[] VALUE = AsciiBytes.of("value");
+    private static final byte[] EVEN = AsciiBytes.of("even");
+    private static final byte[] ODD = AsciiBytes.of("odd");
+
+    private static final byte[] AVAILABLE = AsciiBytes.of("available");
+    private static final byte[] CYCLE_COMPLETE = AsciiBytes.of("cycle complete");
+    private static final byte[] IN_USE = AsciiBytes.of("in use");
+    private static final byte[] UNAVAILABLE = AsciiBytes.of("unavailable");
+    private static final byte[] WASHER = AsciiBytes.of("washer");
+    private static final byte[] DRYER = AsciiBytes.of("dryer");
+
+    private static final byte[] NBSP = AsciiBytes.of("nbsp");
+    private static final byte[] AMP = AsciiBytes.of("amp");
+    private static final byte[] LT = AsciiBytes.of("lt");
+    private static final byte[] GT = AsciiBytes.of("gt");
+    private static final byte[] QUOT = AsciiBytes.of("quot");
+
+    @NotNull
+    private final InputStream mIn;
+    @NotNull
+    private final Logger mLogger;
+    private final byte[] mBuffer;
+    private int mPosition = 0;
+    private int mLimit = 0;
+
+    /*
+     * The last tag read. Names and the two attributes kept are lower case ASCII, truncated to
+     * the size of their arrays; lengths are the untruncated lengths, or -1 if missing.
+     */
+    private int mTagType = EOF;
+    private boolean mSelfClosing;
+    private boolean mPushedBack;
+    private final byte[] mTagName = new byte[16];
+    private int mTagNameLength;
+    private final byte[] mAttributeName = new byte[16];
+    private final byte[] mClass = new byte[16];
+    private int mClassLength;
+    private final byte[] mValue = new byte[16];
+    private int mValueLength;
+    private final byte[] mEntity = new byte[8];
+
+    /**
+     * The text of the current cell, with whitespace collapsed and entities replaced
+     */
+    private byte[] mText = new byte[64];
+    private int mTextLength;
+    private int mCellInputValue;
+
+    public EsudsRowScanner(@NotNull InputStream in, @NotNull Logger logger) {
+        this(in, logger, 8 * 1024);
+    }
+
+    public EsudsRowScanner(@NotNull InputStream in, @NotNull Logger logger, int bufferSize) {
+        mIn = in;
+        mLogger = logger;
+        mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads every machine row in the page into <code>sink</code>
+     */
+    public void readMachines(@NotNull MachineSink sink) throws IOException {
+        while (nextTag() != EOF) {
+            if (isTag(START_TAG, TR) && isMachineRow())
+                readRow(sink);
+        }
+    }
+
+    private boolean isMachineRow() {
+        return mClassLength <= mClass.length && (
+              AsciiBytes.equalsIgnoreCase(mClass, mClassLength, EVEN) ||
+                    AsciiBytes.equalsIgnoreCase(mClass, mClassLength, ODD)
+        );
+    }
+
+    private void readRow(@NotNull MachineSink sink) throws IOException {
+        int cells = 0;
+        long esudsId = NO_ESUDS_ID;
+        int number = -1;
+        int type = TYPE_UNKNOWN;
+        int status = STATUS_UNKNOWN;
+        long timeRemaining = NO_TIME_REMAINING;
+
+        while (nextTag() != EOF) {
+            if (isTag(START_TAG, TD)) {
+                readCell();
+                switch (cells++) {
+                case CELL_ID:
+                    esudsId = mCellInputValue;
+                    break;
+                case CELL_NUMBER:
+                    number = parseInt(mText, mTextLength);
+                    break;
+                case CELL_TYPE:
+                    type = readType();
+                    break;
+                case CELL_STATUS:
+                    status = readStatus();
+                    break;
+                case CELL_TIME_REMAINING:
+                    timeRemaining = readTimeRemaining();
+                    break;
+                default:
+                    break;
+                }
+            } else if (isTag(START_TAG, TR)) {
+                mPushedBack = true;
+                break;
+            } else if (isTag(END_TAG, TR) || isTag(END_TAG, TABLE)) {
+                break;
+            }
+        }
+
+        if (cells < CELL_COUNT) {
+            mLogger.w(TAG, "Skipped a row with " + cells + " cells");
+            return;
+        }
+        sink.add(type, number, esudsId, status, timeRemaining);
+    }
+
+    /**
+     * Reads the text of a cell into {@link #mText}, and the value of any input in it into
+     * {@link #mCellInputValue}. Stops after the cell's end tag, or before the tag that starts
+     * the next cell or row.
+     */
+    private void readCell() throws IOException {
+        mTextLength = 0;
+        mCellInputValue = -1;
+
+        int c;
+        while ((c = read()) != EOF) {
+            if (c == '<') {
+                if (!readTag())
+                    continue;
+                if (isTag(END_TAG, TD))
+                    break;
+                if (isTag(START_TAG, TD) || isTag(START_TAG, TR)
+                      || isTag(END_TAG, TR) || isTag(END_TAG, TABLE)) {
+                    mPushedBack = true;
+                    break;
+                }
+                if (isTag(START_TAG, INPUT) && mValueLength >= 0)
+                    mCellInputValue = parseInt(mValue, mValueLength);
+            } else if (c == '&') {
+                readEntity();
+            } else if (isWhitespace(c)) {
+                appendSpace();
+            } else {
+                append((byte) c);
+            }
+        }
+
+        if (mTextLength > 0 && mText[mTextLength - 1] == ' ')
+            mTextLength--;
+    }
+
+    private int readType() {
+        if (AsciiBytes.containsIgnoreCase(mText, mTextLength, WASHER))
+            return TYPE_WASHER;
+        else if (AsciiBytes.containsIgnoreCase(mText, mTextLength, DRYER))
+            return TYPE_DRYER;
+        else
+            return TYPE_UNKNOWN;
+    }
+
+    private int readStatus() {
+        if (AsciiBytes.equalsIgnoreCase(mText, mTextLength, AVAILABLE))
+            return STATUS_AVAILABLE;
+        else if (AsciiBytes.equalsIgnoreCase(mText, mTextLength, CYCLE_COMPLETE))
+            return STATUS_CYCLE_COMPLETE;
+        else if (AsciiBytes.equalsIgnoreCase(mText, mTextLength, IN_USE))
+            return STATUS_IN_USE;
+        else if (AsciiBytes.equalsIgnoreCase(mText, mTextLength, UNAVAILABLE))
+            return STATUS_UNAVAILABLE;
+        else
+            return STATUS_UNKNOWN;
+    }
+
+    /**
+     * Whole minutes are read in place. Anything else is parsed as a double, the same way
+     * {@link EsudsRoomReader} does.
+     */
+    private long readTimeRemaining() throws IOException {
+        if (mTextLength == 0)
+            return NO_TIME_REMAINING;
+
+        final int minutes = parseInt(mText, mTextLength);
+        if (minutes >= 0)
+            return minutes * ONE_MINUTE;
+
+        final String text = new String(mText, 0, mTextLength, "ISO-8859-1");
+        try {
+            return (long) (Double.parseDouble(text) * ONE_MINUTE);
+        } catch (NumberFormatException nfe) {
+            mLogger.d(TAG, "Unknown Time Remaining: " + text);
+            return NO_TIME_REMAINING;
+        }
+    }
+
+    /**
+     * @return the next start or end tag, or {@link #EOF}
+     */
+    private int nextTag() throws IOException {
+        if (mPushedBack) {
+            mPushedBack = false;
+            return mTagType;
+        }
+        int c;
+        while ((c = read()) != EOF) {
+            if (c == '<' && readTag())
+                return mTagType;
+        }
+        return mTagType = EOF;
+    }
+
+    private boolean isTag(int type, @NotNull byte[] name) {
+        return mTagType == type && AsciiBytes.equals(mTagName, mTagNameLength, name);
+    }
+
+    /**
+     * Reads the rest of a tag, after its '&lt;'. Script and style blocks are skipped along with
+     * their start tag.
+     *
+     * @return false if this was a comment or declaration, or not a tag at all
+     */
+    private boolean readTag() throws IOException {
+        int c = peek();
+        if (c == '!' || c == '?') {
+            read();
+            skipDeclaration(c);
+            return false;
+        }
+
+        int type = START_TAG;
+        if (c == '/') {
+            read();
+            type = END_TAG;
+            c = peek();
+        }
+        if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z'))
+            return false;
+
+        mTagType = type;
+        mTagNameLength = readName(mTagName);
+        mClassLength = -1;
+        mValueLength = -1;
+        mSelfClosing = false;
+        readAttributes();
+
+        if (type == START_TAG && !mSelfClosing) {
+            if (isTag(START_TAG, SCRIPT))
+                skipRawText(SCRIPT);
+            else if (isTag(START_TAG, STYLE))
+                skipRawText(STYLE);
+        }
+        return true;
+    }
+
+    private void readAttributes() throws IOException {
+        while (true) {
+            int c = skipWhitespace();
+            if (c == EOF)
+                return;
+            if (c == '>') {
+                read();
+                return;
+            }
+            if (c == '/') {
+                read();
+                if (peek() == '>') {
+                    read();
+                    mSelfClosing = true;
+                    return;
+                }
+                continue;
+            }
+
+            final int nameLength = readName(mAttributeName);
+            if (nameLength == 0) {
+                // A stray '=' or quote
+                read();
+                continue;
+            }
+            if (skipWhitespace() != '=')
+                continue;
+            read();
+            skipWhitespace();
+
+            if (AsciiBytes.equals(mAttributeName, nameLength, CLASS))
+                mClassLength = readAttributeValue(mClass);
+            else if (AsciiBytes.equals(mAttributeName, nameLength, VALUE))
+                mValueLength = readAttributeValue(mValue);
+            else
+                readAttributeValue(null);
+        }
+    }
+
+    /**
+     * Copies as much of a quoted or unquoted value as fits into <code>into</code>
+     *
+     * @return the whole length of the value
+     */
+    private int readAttributeValue(@Nullable byte[] into) throws IOException {
+        int length = 0;
+        int c = peek();
+        if (c == '"' || c == '\'') {
+            final int quote = read();
+            while ((c = read()) != EOF && c != quote) {
+                if (into != null && length < into.length)
+                    into[length] = AsciiBytes.toLowerCase((byte) c);
+                length++;
+            }
+        } else {
+            while ((c = peek()) != EOF && c != '>' && !isWhitespace(c)) {
+                read();
+                if (into != null && length < into.length)
+                    into[length] = AsciiBytes.toLowerCase((byte) c);
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Reads a tag or attribute name in lower case
+     *
+     * @return the whole length of the name
+     */
+    private int readName(@NotNull byte[] into) throws IOException {
+        int length = 0;
+        int c;
+        while ((c = peek()) != EOF && c != '>' && c != '/' && c != '=' && c != '"' && c != '\''
+              && !isWhitespace(c)) {
+            read();
+            if (length < into.length)
+                into[length] = AsciiBytes.toLowerCase((byte) c);
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Skips a comment, <code>&lt;!DOCTYPE&gt;</code> or processing instruction, after its
+     * first character
+     */
+    private void skipDeclaration(int first) throws IOException {
+        int c;
+        if (first == '!' && peek() == '-') {
+            read();
+            if (peek() == '-') {
+                read();
+                int dashes = 0;
+                while ((c = read()) != EOF) {
+                    if (c == '>' && dashes >= 2)
+                        return;
+                    dashes = c == '-' ? dashes + 1 : 0;
+                }
+                return;
+            }
+        }
+        while ((c = read()) != EOF && c != '>') {
+        }
+    }
+
+    /**
+     * Skips everything up to and including the end tag named <code>name</code>
+     */
+    private void skipRawText(@NotNull byte[] name) throws IOException {
+        int c = read();
+        while (c != EOF) {
+            if (c != '<') {
+                c = read();
+                continue;
+            }
+            c = read();
+            if (c != '/')
+                continue;
+
+            int matched = 0;
+            while (matched < name.length) {
+                c = read();
+                if (c == EOF || AsciiBytes.toLowerCase((byte) c) != name[matched])
+                    break;
+                matched++;
+            }
+            if (matched == name.length) {
+                while (c != EOF && c != '>')
+                    c = read();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces the entity after a '&amp;'. <code>&amp;nbsp;</code> is whitespace; entities that
+     * are not known are kept as they were written.
+     */
+    private void readEntity() throws IOException {
+        int length = 0;
+        int c;
+        while (length < mEntity.length && (c = peek()) != EOF && c != ';' && c != '<'
+              && c != '&' && !isWhitespace(c)) {
+            read();
+            mEntity[length++] = (byte) c;
+        }
+        if (peek() != ';') {
+            append((byte) '&');
+            append(mEntity, length);
+            return;
+        }
+        read();
+
+        if (AsciiBytes.equals(mEntity, length, NBSP)) {
+            appendSpace();
+        } else if (AsciiBytes.equals(mEntity, length, AMP)) {
+            append((byte) '&');
+        } else if (AsciiBytes.equals(mEntity, length, LT)) {
+            append((byte) '<');
+        } else if (AsciiBytes.equals(mEntity, length, GT)) {
+            append((byte) '>');
+        } else if (AsciiBytes.equals(mEntity, length, QUOT)) {
+            append((byte) '"');
+        } else {
+            append((byte) '&');
+            append(mEntity, length);
+            append((byte) ';');
+        }
+    }
+
+    /**
+     * Appends a space, unless the text is empty or already ends with one
+     */
+    private void appendSpace() {
+        if (mTextLength > 0 && mText[mTextLength - 1] != ' ')
+            append((byte) ' ');
+    }
+
+    private void append(byte b) {
+        if (mTextLength == mText.length) {
+            final byte[] grown = new byte[mText.length * 2];
+            System.arraycopy(mText, 0, grown, 0, mTextLength);
+            mText = grown;
+        }
+        mText[mTextLength++] = b;
+    }
+
+    private void append(@NotNull byte[] bytes, int count) {
+        for (int i = 0; i < count; i++)
+            append(bytes[i]);
+    }
+
+    /**
+     * @return the value of a non-negative decimal integer of up to nine digits, or -1 if
+     * <code>bytes</code> does not hold one
+     */
+    private static int parseInt(@NotNull byte[] bytes, int length) {
+        if (length == 0 || length > 9)
+            return -1;
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the next byte that is not whitespace, without consuming it
+     */
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != EOF && isWhitespace(c))
+            read();
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (mPosition == mLimit && !fill())
+            return EOF;
+        return mBuffer[mPosition] & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit && !fill())
+            return EOF;
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        mPosition = 0;
+        mLimit = 0;
+        int read;
+        do {
+            read = mIn.read(mBuffer, 0, mBuffer.length);
+        } while (read == 0);
+        if (read == -1)
+            return false;
+        mLimit = read;
+        return true;
+    }
+}
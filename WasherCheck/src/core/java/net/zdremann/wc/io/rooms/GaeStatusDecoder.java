@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static net.zdremann.wc.io.rooms.MachineSink.*;
+
+/**
+ * Decodes the JSON returned by the status server straight from its UTF-8 bytes.
+ * <p>
+ * <code>/status/{roomId}</code> returns an array of machines:
+ * <pre>
+ * [{"esuds_id": 230901, "number": 1, "type": "Washer", "status": "In Use", "timeRemaining": 5}]
+ * </pre>
+ * and <code>/status?rooms=1,2</code> returns an object mapping each room id to such an array.
+ * Keys, statuses and types are compared against their bytes in place, and numbers are read without
+ * building strings, so nothing is allocated per machine. Unknown keys are skipped, and
+ * <code>null</code> leaves a field at its default.
+ */
+public final class GaeStatusDecoder {
+    private static final byte[] KEY_ESUDS_ID = AsciiBytes.of("esuds_id");
+    private static final byte[] KEY_NUMBER = AsciiBytes.of("number");
+    private static final byte[] KEY_STATUS = AsciiBytes.of("status");
+    private static final byte[] KEY_TYPE = AsciiBytes.of("type");
+    private static final byte[] KEY_TIME_REMAINING = AsciiBytes.of("timeRemaining");
+
+    private static final byte[] AVAILABLE = AsciiBytes.of("available");
+    private static final byte[] CYCLE_COMPLETE = AsciiBytes.of("cycle complete");
+    private static final byte[] IN_USE = AsciiBytes.of("in use");
+    private static final byte[] WASHER = AsciiBytes.of("washer");
+    private static final byte[] DRYER = AsciiBytes.of("dryer");
+
+    private static final byte[] NULL = AsciiBytes.of("null");
+    private static final byte[] TRUE = AsciiBytes.of("true");
+    private static final byte[] FALSE = AsciiBytes.of("false");
+
+    /**
+     * Picks where each room of a <code>/status?rooms=</code> response goes
+     */
+    public interface RoomSinks {
+        /**
+         * @return the sink for <code>roomId</code>'s machines, or <code>null</code> to skip them
+         */
+        @Nullable
+        MachineSink sinkFor(long roomId);
+    }
+
+    @NotNull
+    private final InputStream mIn;
+    private final byte[] mBuffer;
+    private int mPosition = 0;
+    private int mLimit = 0;
+    private long mBufferOffset = 0;
+
+    /**
+     * The last string read, unescaped. Reused for every key and value.
+     */
+    private byte[] mString = new byte[64];
+    private int mStringLength;
+
+    public GaeStatusDecoder(@NotNull InputStream in) {
+        this(in, 8 * 1024);
+    }
+
+    public GaeStatusDecoder(@NotNull InputStream in, int bufferSize) {
+        mIn = in;
+        mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads one room's array of machines into <code>sink</code>
+     */
+    public void readRoom(@NotNull MachineSink sink) throws IOException {
+        expect('[');
+        if (peek() == ']') {
+            mPosition++;
+            return;
+        }
+        do {
+            readMachine(sink);
+        } while (nextSeparator(']'));
+    }
+
+    /**
+     * Reads an object of room ids to arrays of machines. Rooms whose key is not a number, or
+     * that <code>sinks</code> has no sink for, are skipped.
+     */
+    public void readRooms(@NotNull RoomSinks sinks) throws IOException {
+        expect('{');
+        if (peek() == '}') {
+            mPosition++;
+            return;
+        }
+        do {
+            expect('"');
+            readString();
+            final long roomId = parseRoomId();
+            expect(':');
+
+            final MachineSink sink = roomId == -1 ? null : sinks.sinkFor(roomId);
+            if (sink != null)
+                readRoom(sink);
+            else
+                skipValue();
+        } while (nextSeparator('}'));
+    }
+
+    private void readMachine(@NotNull MachineSink sink) throws IOException {
+        long esudsId = NO_ESUDS_ID;
+        long timeRemaining = NO_TIME_REMAINING;
+        int status = STATUS_UNKNOWN;
+        int number = -1;
+        int type = TYPE_UNKNOWN;
+
+        expect('{');
+        if (peek() == '}') {
+            mPosition++;
+        } else {
+            do {
+                expect('"');
+                readString();
+                expect(':');
+
+                if (stringEquals(KEY_ESUDS_ID))
+                    esudsId = readLong(esudsId);
+                else if (stringEquals(KEY_NUMBER))
+                    number = (int) readLong(number);
+                else if (stringEquals(KEY_STATUS))
+                    status = readStatus(status);
+                else if (stringEquals(KEY_TYPE))
+                    type = readType(type);
+                else if (stringEquals(KEY_TIME_REMAINING))
+                    timeRemaining = readLong(timeRemaining);
+                else
+                    skipValue();
+            } while (nextSeparator('}'));
+        }
+
+        sink.add(type, number, esudsId, status, timeRemaining);
+    }
+
+    /**
+     * Statuses the server does not know are shown as unavailable, as they always have been
+     */
+    private int readStatus(int fallback) throws IOException {
+        if (!readStringOrNull())
+            return fallback;
+        if (stringEqualsIgnoreCase(AVAILABLE))
+            return STATUS_AVAILABLE;
+        else if (stringEqualsIgnoreCase(CYCLE_COMPLETE))
+            return STATUS_CYCLE_COMPLETE;
+        else if (stringEqualsIgnoreCase(IN_USE))
+            return STATUS_IN_USE;
+        else
+            return STATUS_UNAVAILABLE;
+    }
+
+    private int readType(int fallback) throws IOException {
+        if (!readStringOrNull())
+            return fallback;
+        if (stringContainsIgnoreCase(WASHER))
+            return TYPE_WASHER;
+        else if (stringContainsIgnoreCase(DRYER))
+            return TYPE_DRYER;
+        else
+            return TYPE_UNKNOWN;
+    }
+
+    /**
+     * @return false if the value was <code>null</code>, otherwise the string is in
+     * {@link #mString}
+     */
+    private boolean readStringOrNull() throws IOException {
+        final int c = nextNonWhitespace();
+        if (c == '"') {
+            readString();
+            return true;
+        }
+        if (c == 'n') {
+            expectLiteral(NULL);
+            return false;
+        }
+        throw syntaxError("Expected a string");
+    }
+
+    /**
+     * Reads a number, or a string holding one, the way <code>JsonReader.nextLong()</code> does.
+     * Fractions are truncated.
+     */
+    private long readLong(long fallback) throws IOException {
+        final int c = nextNonWhitespace();
+        if (c == 'n') {
+            expectLiteral(NULL);
+            return fallback;
+        }
+        if (c == '"') {
+            readString();
+        } else {
+            if (c == -1)
+                throw syntaxError("Unexpected end of input");
+            mPosition--;
+            readNumber();
+        }
+        return parseLong();
+    }
+
+    private long parseLong() throws IOException {
+        final byte[] string = mString;
+        final int length = mStringLength;
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (string[0] == '-' || string[0] == '+')) {
+            negative = string[0] == '-';
+            i++;
+        }
+        if (i == length || length - i > 18)
+            return parseDouble();
+
+        long value = 0;
+        for (; i < length; i++) {
+            final int digit = string[i] - '0';
+            if (digit < 0 || digit > 9)
+                return parseDouble();
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * The slow path for fractions, exponents and very long numbers
+     */
+    private long parseDouble() throws IOException {
+        final String text = new String(mString, 0, mStringLength, "US-ASCII");
+        try {
+            return (long) Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was " + text);
+        }
+    }
+
+    /**
+     * @return the key as a room id, or -1 if it is not one
+     */
+    private long parseRoomId() {
+        if (mStringLength == 0 || mStringLength > 18)
+            return -1;
+        long value = 0;
+        for (int i = 0; i < mStringLength; i++) {
+            final int digit = mString[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Copies the characters of a number, starting at the current position, into
+     * {@link #mString}
+     */
+    private void readNumber() throws IOException {
+        mStringLength = 0;
+        while (true) {
+            if (mPosition == mLimit && !fill())
+                break;
+            final byte b = mBuffer[mPosition];
+            if ((b < '0' || b > '9') && b != '-' && b != '+' && b != '.' && b != 'e' && b != 'E')
+                break;
+            append(b);
+            mPosition++;
+        }
+        if (mStringLength == 0)
+            throw syntaxError("Expected a value");
+    }
+
+    /**
+     * Reads the rest of a string, after its opening quote, into {@link #mString}, unescaping as
+     * it goes. Unicode escapes are written as UTF-8.
+     */
+    private void readString() throws IOException {
+        mStringLength = 0;
+        while (true) {
+            if (mPosition == mLimit && !fill())
+                throw syntaxError("Unterminated string");
+
+            final byte[] buffer = mBuffer;
+            int start = mPosition;
+            int end = start;
+            while (end < mLimit && buffer[end] != '"' && buffer[end] != '\\')
+                end++;
+            append(buffer, start, end - start);
+            mPosition = end;
+            if (end == mLimit)
+                continue;
+
+            mPosition++;
+            if (buffer[end] == '"')
+                return;
+            readEscape();
+        }
+    }
+
+    private void readEscape() throws IOException {
+        final int c = nextByte();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            append((byte) c);
+            break;
+        case 'b':
+            append((byte) '\b');
+            break;
+        case 'f':
+            append((byte) '\f');
+            break;
+        case 'n':
+            append((byte) '\n');
+            break;
+        case 'r':
+            append((byte) '\r');
+            break;
+        case 't':
+            append((byte) '\t');
+            break;
+        case 'u':
+            int code = 0;
+            for (int i = 0; i < 4; i++) {
+                final int digit = Character.digit(nextByte(), 16);
+                if (digit == -1)
+                    throw syntaxError("Invalid \\u escape");
+                code = (code << 4) | digit;
+            }
+            appendUtf8(code);
+            break;
+        default:
+            throw syntaxError("Invalid escape");
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            final int c = nextNonWhitespace();
+            switch (c) {
+            case '{':
+            case '[':
+                depth++;
+                break;
+            case '}':
+            case ']':
+                depth--;
+                break;
+            case '"':
+                readString();
+                break;
+            case ',':
+            case ':':
+                break;
+            case 't':
+                expectLiteral(TRUE);
+                break;
+            case 'f':
+                expectLiteral(FALSE);
+                break;
+            case 'n':
+                expectLiteral(NULL);
+                break;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                mPosition--;
+                readNumber();
+                break;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Consumes the ',' between values, or the closing bracket
+     *
+     * @return whether another value follows
+     */
+    private boolean nextSeparator(char close) throws IOException {
+        final int c = nextNonWhitespace();
+        if (c == ',')
+            return true;
+        if (c == close)
+            return false;
+        throw syntaxError("Expected ',' or '" + close + "'");
+    }
+
+    private void expect(char expected) throws IOException {
+        if (nextNonWhitespace() != expected)
+            throw syntaxError("Expected '" + expected + "'");
+    }
+
+    /**
+     * Checks the rest of <code>literal</code>, whose first byte has already been read
+     */
+    private void expectLiteral(@NotNull byte[] literal) throws IOException {
+        for (int i = 1; i < literal.length; i++) {
+            if (nextByte() != literal[i])
+                throw syntaxError("Expected " + new String(literal, "US-ASCII"));
+        }
+    }
+
+    /**
+     * @return the next byte that is not whitespace, without consuming it
+     */
+    private int peek() throws IOException {
+        final int c = nextNonWhitespace();
+        if (c != -1)
+            mPosition--;
+        return c;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            if (mPosition == mLimit && !fill())
+                return -1;
+            final byte b = mBuffer[mPosition++];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+                return b & 0xff;
+        }
+    }
+
+    private int nextByte() throws IOException {
+        if (mPosition == mLimit && !fill())
+            throw syntaxError("Unexpected end of input");
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    /**
+     * Replaces the buffer's contents with the next bytes of input. Only called once everything
+     * buffered has been consumed.
+     *
+     * @return false at the end of the input
+     */
+    private boolean fill() throws IOException {
+        mBufferOffset += mLimit;
+        mPosition = 0;
+        mLimit = 0;
+        int read;
+        do {
+            read = mIn.read(mBuffer, 0, mBuffer.length);
+        } while (read == 0);
+        if (read == -1)
+            return false;
+        mLimit = read;
+        return true;
+    }
+
+    private boolean stringEquals(@NotNull byte[] expected) {
+        return AsciiBytes.equals(mString, mStringLength, expected);
+    }
+
+    private boolean stringEqualsIgnoreCase(@NotNull byte[] lowerCase) {
+        return AsciiBytes.equalsIgnoreCase(mString, mStringLength, lowerCase);
+    }
+
+    private boolean stringContainsIgnoreCase(@NotNull byte[] lowerCase) {
+        return AsciiBytes.containsIgnoreCase(mString, mStringLength, lowerCase);
+    }
+
+    private void append(byte b) {
+        if (mStringLength == mString.length)
+            grow(mStringLength + 1);
+        mString[mStringLength++] = b;
+    }
+
+    private void append(@NotNull byte[] bytes, int offset, int count) {
+        if (mStringLength + count > mString.length)
+            grow(mStringLength + count);
+        System.arraycopy(bytes, offset, mString, mStringLength, count);
+        mStringLength += count;
+    }
+
+    private void appendUtf8(int code) {
+        if (code < 0x80) {
+            append((byte) code);
+        } else if (code < 0x800) {
+            append((byte) (0xc0 | (code >> 6)));
+            append((byte) (0x80 | (code & 0x3f)));
+        } else {
+            append((byte) (0xe0 | (code >> 12)));
+            append((byte) (0x80 | ((code >> 6) & 0x3f)));
+            append((byte) (0x80 | (code & 0x3f)));
+        }
+    }
+
+    private void grow(int minimum) {
+        final byte[] grown = new byte[Math.max(minimum, mString.length * 2)];
+        System.arraycopy(mString, 0, grown, 0, mStringLength);
+        mString = grown;
+    }
+
+    @NotNull
+    private IOException syntaxError(@NotNull String message) {
+        return new IOException(message + " at byte " + (mBufferOffset + mPosition));
+    }
+}
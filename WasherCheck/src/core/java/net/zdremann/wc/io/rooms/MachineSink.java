@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+/**
+ * Receives machines from the parsers in the core source set, as primitives.
+ * <p>
+ * Types and statuses are passed as the codes below, since <code>Machine.Type</code> and
+ * <code>Machine.Status</code> are defined outside of this source set. Each sink maps the codes
+ * to those enums explicitly, so neither has to follow the other's order.
+ */
+public interface MachineSink {
+    int TYPE_WASHER = 0;
+    int TYPE_DRYER = 1;
+    int TYPE_UNKNOWN = 2;
+
+    int STATUS_AVAILABLE = 0;
+    int STATUS_CYCLE_COMPLETE = 1;
+    int STATUS_IN_USE = 2;
+    int STATUS_UNAVAILABLE = 3;
+    int STATUS_UNKNOWN = 4;
+
+    long NO_TIME_REMAINING = -1;
+    long NO_ESUDS_ID = -1;
+
+    void add(int type, int number, long esudsId, int status, long timeRemaining);
+}
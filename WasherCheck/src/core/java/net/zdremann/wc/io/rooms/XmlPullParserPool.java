@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.Reader;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Hands out {@link XmlPullParser}s, so room refreshes do not look up a factory and build a new
+ * parser every time. The factory is found once, and released parsers are kept for reuse.
+ * <p>
+ * A parser belongs to whoever acquired it until it is released, so refreshes on different
+ * threads each get their own. Parsers are reset by {@link XmlPullParser#setInput(Reader)}
+ * before being handed out again.
+ */
+@Singleton
+public class XmlPullParserPool {
+    private static final int MAX_IDLE = 4;
+
+    private final XmlPullParser[] mIdle = new XmlPullParser[MAX_IDLE];
+    private int mIdleCount = 0;
+    @Nullable
+    private XmlPullParserFactory mFactory;
+
+    @Inject
+    public XmlPullParserPool() {
+    }
+
+    /**
+     * @return a parser reading from <code>reader</code>. Pass it to {@link #release} when done.
+     */
+    @NotNull
+    public XmlPullParser acquire(@NotNull Reader reader) throws XmlPullParserException {
+        XmlPullParser parser = null;
+        synchronized (this) {
+            if (mIdleCount > 0) {
+                parser = mIdle[--mIdleCount];
+                mIdle[mIdleCount] = null;
+            }
+        }
+        if (parser == null)
+            parser = factory().newPullParser();
+        parser.setInput(reader);
+        return parser;
+    }
+
+    /**
+     * Returns <code>parser</code> to the pool. It must not be used again by the caller, even if
+     * reading from it failed.
+     */
+    public void release(@NotNull XmlPullParser parser) {
+        try {
+            // Drops the reference to the last input
+            parser.setInput(null);
+        } catch (XmlPullParserException e) {
+            return;
+        }
+        synchronized (this) {
+            if (mIdleCount < MAX_IDLE)
+                mIdle[mIdleCount++] = parser;
+        }
+    }
+
+    @NotNull
+    private synchronized XmlPullParserFactory factory() throws XmlPullParserException {
+        if (mFactory == null)
+            mFactory = XmlPullParserFactory.newInstance();
+        return mFactory;
+    }
+}
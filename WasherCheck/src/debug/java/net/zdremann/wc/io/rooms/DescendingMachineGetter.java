@@ -27,6 +27,7 @@ import net.zdremann.wc.model.Machine;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 
@@ -78,6 +79,11 @@ public class DescendingMachineGetter implements MachineGetter {
         return machines;
     }
 
+    @Override
+    public Map<Long, List<Machine>> getMachines(long... roomIds) throws IOException {
+        return MachineGetters.fanOut(this, roomIds);
+    }
+
     private Machine.Status getStatus() {
         return Machine.Status.fromInt(NUM_ITERATIONS - 1 - getIteration() % 5);
     }
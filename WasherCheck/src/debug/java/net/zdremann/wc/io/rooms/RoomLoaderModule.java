@@ -26,9 +26,14 @@ import android.content.SharedPreferences;
 import android.os.Build;
 
 import net.zdremann.wc.Main;
+import net.zdremann.wc.service.RoomRevalidationListener;
 
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
+import javax.inject.Singleton;
+
+import dagger.Lazy;
 import dagger.Module;
 import dagger.Provides;
 
@@ -36,16 +41,43 @@ import dagger.Provides;
 public class RoomLoaderModule {
     @Provides
     MachineGetter provideMachineGetter(@Main SharedPreferences preferences,
-          EsudsMachineGetter esudsMachineGetter,
-          GaeMachineGetter gaeMachineGetter,
+          Lazy<CachingMachineGetter> cachingMachineGetter,
           DescendingMachineGetter debugMachineGetter) {
         if(!preferences.getBoolean("net.zdremann.wc.fake_io", false))
-            return new FallbackMachineGetter(
-                  (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ?
-              Arrays.asList(gaeMachineGetter, esudsMachineGetter, debugMachineGetter) :
-              Arrays.asList(esudsMachineGetter, debugMachineGetter))
-            );
+            return cachingMachineGetter.get();
         else
             return debugMachineGetter;
     }
+
+    /**
+     * The fake getter is only a last resort, so it is kept out of the hedged getters.
+     */
+    @Provides
+    @Singleton
+    CachingMachineGetter provideCachingMachineGetter(
+          EsudsMachineGetter esudsMachineGetter,
+          GaeMachineGetter gaeMachineGetter,
+          DescendingMachineGetter debugMachineGetter,
+          RoomRevalidationListener revalidationListener) {
+        final ExecutorService executor = RoomLoaderConfig.newExecutor();
+        final MachineGetter hedged = new FallbackMachineGetter(
+              Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ?
+              Arrays.asList(
+                    tracked("gae", gaeMachineGetter), tracked("esuds", esudsMachineGetter)
+              ) :
+              Arrays.asList(tracked("esuds", esudsMachineGetter)),
+              executor, RoomLoaderConfig.DEFAULT_HEDGE_DELAY_MILLIS
+        );
+        final CachingMachineGetter cache = new CachingMachineGetter(
+              new FallbackMachineGetter(Arrays.asList(hedged, debugMachineGetter)),
+              executor, RoomLoaderConfig.CACHE_TTL_MILLIS, RoomLoaderConfig.CACHE_STALE_MILLIS,
+              RoomLoaderConfig.CACHE_MAX_ROOMS
+        );
+        cache.setOnRevalidatedListener(revalidationListener);
+        return cache;
+    }
+
+    private static MachineGetter tracked(String name, MachineGetter getter) {
+        return new HealthTrackingMachineGetter(name, getter);
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.provider;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static net.zdremann.wc.provider.WasherCheckDatabase.*;
+
+/**
+ * Logs the query plan and latency of the per-room machine status query, first with only the
+ * tables' unique constraints and then with the covering indexes, on an in-memory database with
+ * thousands of rooms.
+ */
+public final class MachineStatusQueryBenchmark {
+    private static final String TAG = "MachineStatusQueryBench";
+    private static final int ROOMS = 5000;
+    private static final int MACHINES_PER_ROOM = 40;
+    private static final int QUERIES = 2000;
+    private static final String SQL_QUERY =
+          "SELECT * FROM " + MachineStatusView.VIEW_NAME +
+                " WHERE " + WasherCheckContract.MachineStatus.ROOM_ID + "=?" +
+                " ORDER BY " + WasherCheckProvider.MACHINE_STATUS_BY_ROOM_SORT;
+
+    private MachineStatusQueryBenchmark() {
+    }
+
+    public static void run() {
+        final SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            db.execSQL(MachineTable.SQL_CREATE);
+            db.execSQL(StatusUpdateTable.SQL_CREATE);
+            db.execSQL(MachineStatusView.SQL_CREATE);
+            fill(db);
+            db.execSQL("ANALYZE");
+            measure(db, "without indexes");
+
+            db.execSQL(MachineTable.SQL_CREATE_INDEX_ROOM);
+            db.execSQL(StatusUpdateTable.SQL_CREATE_INDEX_MACHINE);
+            db.execSQL("ANALYZE");
+            measure(db, "with indexes");
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void fill(SQLiteDatabase db) {
+        final Random random = new Random(42);
+        db.beginTransaction();
+        final SQLiteStatement insertMachine = db.compileStatement(
+              "INSERT INTO " + MachineTable.TABLE_NAME + " (" +
+                    MachineTable._ID + "," + MachineTable.NUMBER + "," +
+                    MachineTable.MACHINE_TYPE + "," + MachineTable.ROOM_ID + "," +
+                    MachineTable.ESUDS_ID + ") VALUES (?,?,?,?,?)"
+        );
+        final SQLiteStatement insertStatus = db.compileStatement(
+              "INSERT INTO " + StatusUpdateTable.TABLE_NAME + " (" +
+                    StatusUpdateTable.MACHINE_ID + "," + StatusUpdateTable.STATUS + "," +
+                    StatusUpdateTable.REPORTED_TIME_REMAINING + "," +
+                    StatusUpdateTable.LAST_UPDATED + ") VALUES (?,?,?,?)"
+        );
+        try {
+            long machineId = 0;
+            for (int room = 0; room < ROOMS; room++) {
+                for (int number = 1; number <= MACHINES_PER_ROOM; number++) {
+                    machineId++;
+                    insertMachine.bindLong(1, machineId);
+                    insertMachine.bindLong(2, number);
+                    insertMachine.bindLong(3, random.nextInt(2));
+                    insertMachine.bindLong(4, room);
+                    insertMachine.bindLong(5, machineId);
+                    insertMachine.executeInsert();
+
+                    insertStatus.bindLong(1, machineId);
+                    insertStatus.bindLong(2, random.nextInt(5));
+                    insertStatus.bindLong(3, random.nextInt(60));
+                    insertStatus.bindLong(4, System.currentTimeMillis());
+                    insertStatus.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insertMachine.close();
+            insertStatus.close();
+            db.endTransaction();
+        }
+    }
+
+    private static void measure(SQLiteDatabase db, String label) {
+        final Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + SQL_QUERY, new String[]{"0"});
+        try {
+            while (plan.moveToNext()) {
+                Log.i(TAG, label + " plan: " + plan.getString(plan.getColumnCount() - 1));
+            }
+        } finally {
+            plan.close();
+        }
+
+        final Random random = new Random(7);
+        final long[] nanos = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            final String[] args = {String.valueOf(random.nextInt(ROOMS))};
+            final long start = System.nanoTime();
+            final Cursor c = db.rawQuery(SQL_QUERY, args);
+            try {
+                while (c.moveToNext()) {
+                    c.getLong(0);
+                }
+            } finally {
+                c.close();
+            }
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        Log.i(
+              TAG, String.format(
+                    "%s: %d rooms, mean %.1f us, median %.1f us, p95 %.1f us", label, ROOMS,
+                    total / 1000.0 / QUERIES, nanos[QUERIES / 2] / 1000.0,
+                    nanos[QUERIES * 95 / 100] / 1000.0
+              )
+        );
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.service;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+
+import net.zdremann.wc.provider.MachineStatusQueryBenchmark;
+import net.zdremann.wc.ui.MachineRowBindBenchmark;
+import net.zdremann.wc.ui.widget.SectionedListAdapterBenchmark;
+
+/**
+ * Runs the debug benchmarks, logging their results. Start one with
+ * <pre>
+ * adb shell am startservice -a net.zdremann.wc.benchmark.QUERY_PLAN \
+ *     air.air.net.zdremann.zsuds/net.zdremann.wc.service.BenchmarkService
+ * </pre>
+ */
+public class BenchmarkService extends IntentService {
+    private static final String TAG = "BenchmarkService";
+    public static final String ACTION_QUERY_PLAN = "net.zdremann.wc.benchmark.QUERY_PLAN";
+    public static final String ACTION_SECTIONED_ADAPTER =
+          "net.zdremann.wc.benchmark.SECTIONED_ADAPTER";
+    public static final String ACTION_ROW_BINDING = "net.zdremann.wc.benchmark.ROW_BINDING";
+
+    public BenchmarkService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        final String action = intent.getAction();
+        if (ACTION_QUERY_PLAN.equals(action)) {
+            MachineStatusQueryBenchmark.run();
+        } else if (ACTION_SECTIONED_ADAPTER.equals(action)) {
+            SectionedListAdapterBenchmark.run(this);
+        } else if (ACTION_ROW_BINDING.equals(action)) {
+            MachineRowBindBenchmark.run(this);
+        } else {
+            Log.w(TAG, "Unknown benchmark: " + action);
+        }
+    }
+}
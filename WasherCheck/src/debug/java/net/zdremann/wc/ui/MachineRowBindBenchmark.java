@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.ui;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.os.Build;
+import android.os.Debug;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.TypefaceSpan;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+
+import net.zdremann.wc.model.Machine;
+
+import air.air.net.zdremann.zsuds.R;
+
+/**
+ * Logs the objects allocated per row bind by {@link MachineRowBinder}, next to the binding code
+ * it replaced, which formatted and styled every row from scratch.
+ * <p>
+ * Rows are bound with a report time of zero at time zero, so the reported time is shown as is.
+ * Three cases are counted:
+ * <ul>
+ * <li>building the labels alone, which is all of the binder's own work;</li>
+ * <li>binding a rotating set of rows, which includes what TextView allocates for new text;</li>
+ * <li>rebinding rows whose values did not change, as happens when the list is refreshed.</li>
+ * </ul>
+ */
+@SuppressWarnings("deprecation")
+public final class MachineRowBindBenchmark {
+    private static final String TAG = "MachineRowBindBench";
+    private static final int ROWS = 24;
+    private static final int BINDS = 10000;
+
+    private MachineRowBindBenchmark() {
+    }
+
+    public static void run(Context context) {
+        final MachineRowBinder binder = new MachineRowBinder(context);
+        final MachineRowBinder.ViewHolder[] holders = new MachineRowBinder.ViewHolder[ROWS];
+        final LayoutInflater inflater = LayoutInflater.from(context);
+        for (int i = 0; i < ROWS; i++) {
+            final View row = inflater.inflate(R.layout.item_machine_row, null, false);
+            holders[i] = MachineRowBinder.ViewHolder.from(row);
+        }
+        final int statuses = Machine.Status.values().length;
+
+        // Warm up every label the timed loops will use
+        for (int i = 0; i < BINDS; i++) {
+            binder.bind(holders[i % ROWS], i % ROWS, i % statuses, timeRemaining(i), 0, 0);
+            bindAsBefore(context, holders[i % ROWS], i % ROWS, i % statuses, timeRemaining(i));
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < BINDS; i++) {
+                binder.numberLabel(i % ROWS);
+                binder.timeLabel(timeRemaining(i));
+            }
+            log("labels", Debug.getThreadAllocCount());
+
+            // Shifting by one row each pass means every bind changes the row's values
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < BINDS; i++) {
+                final int value = i + i / ROWS;
+                binder.bind(
+                      holders[i % ROWS], value % ROWS, value % statuses, timeRemaining(value),
+                      0, 0
+                );
+            }
+            log("changed rows", Debug.getThreadAllocCount());
+
+            for (int i = 0; i < ROWS; i++) {
+                binder.bind(holders[i], i, i % statuses, timeRemaining(i), 0, 0);
+            }
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < BINDS; i++) {
+                final int row = i % ROWS;
+                binder.bind(holders[row], row, row % statuses, timeRemaining(row), 0, 0);
+            }
+            log("unchanged rows", Debug.getThreadAllocCount());
+
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < BINDS; i++) {
+                final int value = i + i / ROWS;
+                bindAsBefore(
+                      context, holders[i % ROWS], value % ROWS, value % statuses,
+                      timeRemaining(value)
+                );
+            }
+            log("before, changed rows", Debug.getThreadAllocCount());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static long timeRemaining(int i) {
+        return (i % 7 == 0) ? Machine.NO_TIME_REMAINING : (i % 90) * MachineRowBinder.MINUTE;
+    }
+
+    private static void log(String label, int allocations) {
+        Log.i(
+              TAG, String.format(
+                    "%s: %d allocations in %d binds, %.2f per bind", label, allocations, BINDS,
+                    (double) allocations / BINDS
+              )
+        );
+    }
+
+    /**
+     * The row binding as it was
+     */
+    private static void bindAsBefore(
+          Context context, MachineRowBinder.ViewHolder vh, int number, int statusOrdinal,
+          long timeRemaining) {
+        Resources res = context.getResources();
+        Machine.Status status = Machine.Status.fromInt(statusOrdinal);
+
+        if (number == -1)
+            vh.number.setText(R.string.machine_number_unknown);
+        else
+            vh.number.setText(String.valueOf(number));
+        vh.status.setText(status.toString(context));
+        vh.status.setTextColor(status.getColor(context));
+
+        if (timeRemaining >= 0) {
+            String timeText = String
+                  .format("%.0f", (double) timeRemaining / MachineRowBinder.MINUTE);
+            String timePostfix = res.getString(R.string.minutes_remaining_postfix);
+
+            Spannable spanRange = new SpannableString(timeText + " " + timePostfix);
+            spanRange.setSpan(
+                  (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) ?
+                  new TypefaceSpan("sans-serif-thin") : new TypefaceSpan("sans-serif-light"),
+                  timeText.length(), spanRange.length(), 0
+            );
+            vh.time.setText(spanRange, TextView.BufferType.SPANNABLE);
+
+            vh.time.setVisibility(View.VISIBLE);
+        } else {
+            vh.time.setVisibility(View.GONE);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.ui.widget;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+/**
+ * Logs how long {@link SimpleSectionedListAdapter} takes to map every row of a long list with
+ * hundreds of headers, next to the linear scan it used to do.
+ */
+public final class SectionedListAdapterBenchmark {
+    private static final String TAG = "SectionedAdapterBench";
+    private static final int ROWS = 20000;
+    private static final int SECTIONS = 500;
+    private static final int ROUNDS = 20;
+
+    private SectionedListAdapterBenchmark() {
+    }
+
+    public static void run(Context context) {
+        final SimpleSectionedListAdapter adapter =
+              new SimpleSectionedListAdapter(context, 0, new RowsAdapter());
+        final SimpleSectionedListAdapter.Section[] sections =
+              new SimpleSectionedListAdapter.Section[SECTIONS];
+        final SparseArray<SimpleSectionedListAdapter.Section> byPosition =
+              new SparseArray<SimpleSectionedListAdapter.Section>();
+        for (int i = 0; i < SECTIONS; i++) {
+            sections[i] = new SimpleSectionedListAdapter.Section(i * (ROWS / SECTIONS), "");
+        }
+        adapter.setSections(sections);
+        for (SimpleSectionedListAdapter.Section section : sections) {
+            byPosition.append(section.sectionedPosition, section);
+        }
+
+        final int count = adapter.getCount();
+        long checksum = 0;
+
+        // Warm up both paths before timing either, checking that they agree
+        for (int position = 0; position < count; position++) {
+            final int expected = linearPosition(byPosition, position);
+            final int actual = adapter.sectionedPositionToPosition(position);
+            if (actual != expected) {
+                throw new IllegalStateException(
+                      "Position " + position + " mapped to " + actual + ", expected " + expected
+                );
+            }
+            checksum += adapter.getItemId(position) + expected;
+        }
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int position = 0; position < count; position++) {
+                checksum += adapter.getItemId(position);
+                checksum += adapter.isEnabled(position) ? 1 : 0;
+                adapter.getItem(position);
+            }
+        }
+        final long binaryNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int position = 0; position < count; position++) {
+                // getItemId, isEnabled and getItem each mapped the position once
+                checksum += linearPosition(byPosition, position);
+                checksum += linearPosition(byPosition, position);
+                checksum += linearPosition(byPosition, position);
+            }
+        }
+        final long linearNanos = System.nanoTime() - start;
+
+        Log.i(
+              TAG, String.format(
+                    "%d rows, %d sections: binary search %.1f ns/row, linear scan %.1f ns/row" +
+                          " (checksum %d)", ROWS, SECTIONS,
+                    (double) binaryNanos / ROUNDS / count,
+                    (double) linearNanos / ROUNDS / count, checksum
+              )
+        );
+    }
+
+    /**
+     * The mapping as it was, scanning every section
+     */
+    private static int linearPosition(
+          SparseArray<SimpleSectionedListAdapter.Section> sections, int sectionedPosition) {
+        if (sections.get(sectionedPosition) != null)
+            return -1;
+        int offset = 0;
+        for (int i = 0; i < sections.size(); i++) {
+            if (sections.valueAt(i).sectionedPosition > sectionedPosition)
+                break;
+            --offset;
+        }
+        return sectionedPosition + offset;
+    }
+
+    private static class RowsAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return ROWS;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            return convertView != null ? convertView : new View(parent.getContext());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.locations;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import net.zdremann.ForApplication;
+import net.zdremann.wc.model.LocationTree;
+import net.zdremann.wc.model.MachineGrouping;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.inject.Inject;
+
+/**
+ * Reads the location catalog compiled from <code>res/xml/rooms.xml</code> at build time by the
+ * <code>compileLocationCatalog</code> task. See <code>location-catalog.gradle</code> for the
+ * layout.
+ */
+public class BinaryLocationsGetter implements LocationsGetter {
+    static final String ASSET_NAME = "locations.bin";
+    static final int MAGIC = 0x57434C43;
+    static final int VERSION = 1;
+    static final int FLAG_HAS_COLOR = 1;
+
+    private final Context mContext;
+
+    @Inject
+    public BinaryLocationsGetter(@ForApplication Context context) {
+        mContext = context;
+    }
+
+    @NotNull
+    @Override
+    public MachineGrouping load() {
+        try {
+            return read(open());
+        } catch (IOException e) {
+            throw new IllegalStateException("Location catalog is missing", e);
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Location catalog is bad", e);
+        }
+    }
+
+    /**
+     * Maps the asset straight from the APK. If it was compressed after all, it is copied into a
+     * direct buffer instead.
+     */
+    @NotNull
+    private ByteBuffer open() throws IOException {
+        try {
+            final AssetFileDescriptor fd = mContext.getAssets().openFd(ASSET_NAME);
+            final FileInputStream in = fd.createInputStream();
+            try {
+                return in.getChannel().map(
+                      FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()
+                );
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            final InputStream in = mContext.getAssets().open(ASSET_NAME);
+            try {
+                final byte[] buffer = new byte[8192];
+                ByteBuffer result = ByteBuffer.allocateDirect(Math.max(in.available(), 1 << 14));
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (result.remaining() < read) {
+                        final ByteBuffer larger = ByteBuffer.allocateDirect(
+                              Math.max(result.capacity() * 2, result.position() + read)
+                        );
+                        result.flip();
+                        larger.put(result);
+                        result = larger;
+                    }
+                    result.put(buffer, 0, read);
+                }
+                result.flip();
+                return result;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    @NotNull
+    static MachineGrouping read(@NotNull ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a location catalog");
+        final int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported location catalog version " + version);
+
+        final String[] strings = new String[buffer.getInt()];
+        final int[] offsets = new int[strings.length + 1];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = buffer.getInt();
+        }
+        final byte[] utf8 = new byte[offsets[strings.length]];
+        buffer.get(utf8);
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = new String(utf8, offsets[i], offsets[i + 1] - offsets[i], "UTF-8");
+        }
+        buffer.position((buffer.position() + 3) & ~3);
+
+        final int count = buffer.getInt();
+        final int ids = buffer.position();
+        final int parents = ids + 4 * count;
+        final int firstChildren = parents + 4 * count;
+        final int childCounts = firstChildren + 4 * count;
+        final int names = childCounts + 4 * count;
+        final int colors = names + 4 * count;
+        final int types = colors + 4 * count;
+        final int flags = types + count;
+        final int latitudes = flags + count;
+        final int longitudes = latitudes + 8 * count;
+
+        // Breadth first order puts every parent before its children, so the builder hands out
+        // the same indices the catalog uses
+        final LocationTree.Builder builder = new LocationTree.Builder();
+        for (int i = 0; i < count; i++) {
+            final Integer color = (buffer.get(flags + i) & FLAG_HAS_COLOR) != 0
+                  ? buffer.getInt(colors + 4 * i) : null;
+            builder.add(
+                  i == 0 ? LocationTree.NO_PARENT : buffer.getInt(parents + 4 * i),
+                  buffer.getInt(ids + 4 * i),
+                  strings[buffer.getInt(names + 4 * i)],
+                  MachineGrouping.Type.ofInt(buffer.get(types + i)),
+                  buffer.getDouble(latitudes + 8 * i),
+                  buffer.getDouble(longitudes + 8 * i),
+                  color
+            );
+        }
+        return builder.build().getRoot();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.locations;
+
+import net.zdremann.wc.model.MachineGrouping;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A static k-d tree over the groupings that have coordinates.
+ * <p>
+ * Each location is stored as a point on the unit sphere, so straight-line (chord) distance
+ * between points grows with great-circle distance, and the tree never has to deal with the
+ * longitude wrapping around. Groupings whose latitude or longitude is NaN are left out.
+ */
+final class LocationIndex {
+    static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    /**
+     * Points, stored in tree order: the root of the range <code>[lo, hi)</code> is at
+     * <code>(lo + hi) / 2</code>, split on axis <code>depth % 3</code>.
+     */
+    private final double[][] mPoints;
+    private final MachineGrouping[] mGroupings;
+
+    LocationIndex(@NotNull List<MachineGrouping> groupings) {
+        final List<MachineGrouping> located = new ArrayList<MachineGrouping>(groupings.size());
+        for (MachineGrouping grouping : groupings) {
+            if (grouping.hasLocation())
+                located.add(grouping);
+        }
+
+        final Integer[] order = new Integer[located.size()];
+        final double[][] points = new double[located.size()][];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            final MachineGrouping grouping = located.get(i);
+            points[i] = toPoint(grouping.getLatitude(), grouping.getLongitude());
+        }
+        build(order, points, 0, order.length, 0);
+
+        mPoints = new double[order.length][];
+        mGroupings = new MachineGrouping[order.length];
+        for (int i = 0; i < order.length; i++) {
+            mPoints[i] = points[order[i]];
+            mGroupings[i] = located.get(order[i]);
+        }
+    }
+
+    int size() {
+        return mGroupings.length;
+    }
+
+    @Nullable
+    MachineGrouping nearest(double latitude, double longitude) {
+        final List<MachineGrouping> nearest = nearest(latitude, longitude, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * @return up to <code>k</code> groupings, nearest first
+     */
+    @NotNull
+    List<MachineGrouping> nearest(double latitude, double longitude, int k) {
+        if (k <= 0 || mGroupings.length == 0)
+            return Collections.emptyList();
+
+        // Max-heap of the best candidates so far, farthest on top
+        final PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(
+              k + 1, new Comparator<Candidate>() {
+                  @Override
+                  public int compare(Candidate lhs, Candidate rhs) {
+                      return Double.compare(rhs.distanceSquared, lhs.distanceSquared);
+                  }
+              }
+        );
+        nearest(toPoint(latitude, longitude), k, best, 0, mGroupings.length, 0);
+        return sorted(best);
+    }
+
+    /**
+     * @return every grouping within <code>meters</code> (along the Earth's surface), nearest
+     * first
+     */
+    @NotNull
+    List<MachineGrouping> within(double latitude, double longitude, double meters) {
+        final double angle = Math.min(Math.PI, meters / EARTH_RADIUS_METERS);
+        final double chord = 2 * Math.sin(angle / 2);
+        final List<Candidate> found = new ArrayList<Candidate>();
+        within(toPoint(latitude, longitude), chord * chord, found, 0, mGroupings.length, 0);
+        return sorted(found);
+    }
+
+    private void nearest(
+          double[] target, int k, PriorityQueue<Candidate> best, int lo, int hi, int depth) {
+        if (lo >= hi)
+            return;
+        final int mid = (lo + hi) >>> 1;
+        final int axis = depth % 3;
+
+        final double distanceSquared = distanceSquared(target, mPoints[mid]);
+        if (best.size() < k) {
+            best.add(new Candidate(mid, distanceSquared));
+        } else if (distanceSquared < best.peek().distanceSquared) {
+            best.poll();
+            best.add(new Candidate(mid, distanceSquared));
+        }
+
+        final double delta = target[axis] - mPoints[mid][axis];
+        final boolean lowFirst = delta < 0;
+        if (lowFirst)
+            nearest(target, k, best, lo, mid, depth + 1);
+        else
+            nearest(target, k, best, mid + 1, hi, depth + 1);
+
+        // Only cross the splitting plane if it is closer than the worst candidate
+        if (best.size() < k || delta * delta < best.peek().distanceSquared) {
+            if (lowFirst)
+                nearest(target, k, best, mid + 1, hi, depth + 1);
+            else
+                nearest(target, k, best, lo, mid, depth + 1);
+        }
+    }
+
+    private void within(
+          double[] target, double maxDistanceSquared, List<Candidate> found, int lo, int hi,
+          int depth) {
+        if (lo >= hi)
+            return;
+        final int mid = (lo + hi) >>> 1;
+        final int axis = depth % 3;
+
+        final double distanceSquared = distanceSquared(target, mPoints[mid]);
+        if (distanceSquared <= maxDistanceSquared)
+            found.add(new Candidate(mid, distanceSquared));
+
+        final double delta = target[axis] - mPoints[mid][axis];
+        if (delta < 0 || delta * delta <= maxDistanceSquared)
+            within(target, maxDistanceSquared, found, lo, mid, depth + 1);
+        if (delta >= 0 || delta * delta <= maxDistanceSquared)
+            within(target, maxDistanceSquared, found, mid + 1, hi, depth + 1);
+    }
+
+    private List<MachineGrouping> sorted(Iterable<Candidate> candidates) {
+        final List<Candidate> list = new ArrayList<Candidate>();
+        for (Candidate candidate : candidates) {
+            list.add(candidate);
+        }
+        Collections.sort(
+              list, new Comparator<Candidate>() {
+                  @Override
+                  public int compare(Candidate lhs, Candidate rhs) {
+                      return Double.compare(lhs.distanceSquared, rhs.distanceSquared);
+                  }
+              }
+        );
+        final List<MachineGrouping> result = new ArrayList<MachineGrouping>(list.size());
+        for (Candidate candidate : list) {
+            result.add(mGroupings[candidate.index]);
+        }
+        return result;
+    }
+
+    private static void build(
+          Integer[] order, final double[][] points, int lo, int hi, int depth) {
+        if (hi - lo <= 1)
+            return;
+        final int axis = depth % 3;
+        Arrays.sort(
+              order, lo, hi, new Comparator<Integer>() {
+                  @Override
+                  public int compare(Integer lhs, Integer rhs) {
+                      return Double.compare(points[lhs][axis], points[rhs][axis]);
+                  }
+              }
+        );
+        final int mid = (lo + hi) >>> 1;
+        build(order, points, lo, mid, depth + 1);
+        build(order, points, mid + 1, hi, depth + 1);
+    }
+
+    private static double[] toPoint(double latitude, double longitude) {
+        final double lat = Math.toRadians(latitude);
+        final double lon = Math.toRadians(longitude);
+        final double cosLat = Math.cos(lat);
+        return new double[]{cosLat * Math.cos(lon), cosLat * Math.sin(lon), Math.sin(lat)};
+    }
+
+    private static double distanceSquared(double[] a, double[] b) {
+        final double dx = a[0] - b[0];
+        final double dy = a[1] - b[1];
+        final double dz = a[2] - b[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static final class Candidate {
+        final int index;
+        final double distanceSquared;
+
+        Candidate(int index, double distanceSquared) {
+            this.index = index;
+            this.distanceSquared = distanceSquared;
+        }
+    }
+}
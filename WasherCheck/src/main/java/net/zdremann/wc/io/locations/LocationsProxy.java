@@ -23,39 +23,29 @@
 package net.zdremann.wc.io.locations;
 
 import android.location.Location;
-import android.support.v4.util.LongSparseArray;
 
+import net.zdremann.wc.model.LocationTree;
 import net.zdremann.wc.model.MachineGrouping;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Comparator;
-import java.util.NoSuchElementException;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
 public class LocationsProxy {
     @NotNull
     private MachineGrouping mRoot;
-    private final LongSparseArray<MachineGrouping> mLocations = new LongSparseArray<MachineGrouping>();
-    private final SortedMap<Location, MachineGrouping> mLocationMap = new TreeMap<Location, MachineGrouping>(
-          new Comparator<Location>() {
-              @Override
-              public int compare(final Location lhs, final Location rhs) {
-                  double dist1 = lhs.getLatitude() + lhs.getLongitude();
-                  double dist2 = rhs.getLatitude() + rhs.getLongitude();
-
-                  return Double.compare(dist1, dist2);
-              }
-          }
-    );
+    @NotNull
+    private final LocationTree mTree;
+    private LocationIndex mLocationIndex;
 
     @Inject
     public LocationsProxy(@NotNull @Root MachineGrouping root) {
         mRoot = root;
+        mTree = root.getTree();
         initCaches();
     }
 
@@ -66,40 +56,23 @@ public class LocationsProxy {
 
     @Nullable
     public MachineGrouping getClosestLocation(@NotNull Location target) {
-        @Nullable
-        MachineGrouping above;
-        @Nullable
-        MachineGrouping below;
-        MachineGrouping closest;
-
-        if(mLocationMap.containsKey(target)) {
-            return mLocationMap.get(target);
-        }
-        try {
-            above = mLocationMap.get(mLocationMap.headMap(target).lastKey());
-        } catch (NoSuchElementException e) {
-            above = null;
-        }
-
-        try {
-            below = mLocationMap.get(mLocationMap.tailMap(target).lastKey());
-        } catch (NoSuchElementException e) {
-            below = null;
-        }
-
-        if (above == null)
-            closest = below;
-        else if (below == null)
-            closest = above;
-        else if (target.distanceTo(above.location) < target.distanceTo(below.location))
-            closest = above;
-        else
-            closest = below;
+        return mLocationIndex.nearest(target.getLatitude(), target.getLongitude());
+    }
 
-        if (closest == null)
-            return null;
+    /**
+     * @return up to <code>count</code> groupings with coordinates, nearest first
+     */
+    @NotNull
+    public List<MachineGrouping> getClosestLocations(@NotNull Location target, int count) {
+        return mLocationIndex.nearest(target.getLatitude(), target.getLongitude(), count);
+    }
 
-        return closest;
+    /**
+     * @return every grouping within <code>meters</code> of the target, nearest first
+     */
+    @NotNull
+    public List<MachineGrouping> getLocationsWithin(@NotNull Location target, double meters) {
+        return mLocationIndex.within(target.getLatitude(), target.getLongitude(), meters);
     }
 
     @Nullable
@@ -110,24 +83,21 @@ public class LocationsProxy {
 
     @Nullable
     public MachineGrouping getGrouping(long groupingId) {
-        return mLocations.get(groupingId);
+        return mTree.findGrouping(groupingId);
     }
 
     @Nullable
     public MachineGrouping parentOf(@NotNull MachineGrouping grouping) {
-        return grouping.parent;
+        return grouping.getParent();
     }
 
     private void initCaches() {
-        cacheTree(mRoot);
-    }
-
-    private void cacheTree(@NotNull MachineGrouping node) {
-        mLocations.put(node.id, node);
-        mLocationMap.put(node.location, node);
-
-        for (MachineGrouping child : node.children) {
-            cacheTree(child);
+        // Only nodes with a location get a view; LocationIndex would drop the rest anyway
+        final List<MachineGrouping> located = new ArrayList<MachineGrouping>(mTree.size());
+        for (int i = 0; i < mTree.size(); i++) {
+            if (!Double.isNaN(mTree.getLatitude(i)) && !Double.isNaN(mTree.getLongitude(i)))
+                located.add(mTree.grouping(i));
         }
+        mLocationIndex = new LocationIndex(located);
     }
 }
@@ -33,7 +33,7 @@ import dagger.Provides;
 public class LocationsProxyModule {
 
     @Provides
-    public LocationsGetter provideLocationsGetter(ResourcesLocationsGetter getter) {
+    public LocationsGetter provideLocationsGetter(BinaryLocationsGetter getter) {
         return getter;
     }
 
@@ -27,8 +27,8 @@ import android.graphics.Color;
 import android.text.TextUtils;
 
 import net.zdremann.ForApplication;
+import net.zdremann.wc.model.LocationTree;
 import net.zdremann.wc.model.MachineGrouping;
-import net.zdremann.wc.model.MachineGroupingBuilder;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -36,10 +36,8 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -81,7 +79,9 @@ public class ResourcesLocationsGetter implements LocationsGetter {
                 switch (eventType) {
                 case XmlPullParser.START_TAG:
                     if ("root".equals(parser.getName())) {
-                        return readGrouping(parser);
+                        final LocationTree.Builder builder = new LocationTree.Builder();
+                        readGrouping(parser, builder, LocationTree.NO_PARENT);
+                        return builder.build().getRoot();
                     }
                 }
             }
@@ -93,9 +93,9 @@ public class ResourcesLocationsGetter implements LocationsGetter {
         throw new IllegalStateException("XML Data is bad");
     }
 
-    @NotNull
-    private MachineGrouping readGrouping(
-          @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
+    private void readGrouping(
+          @NotNull XmlPullParser parser, @NotNull LocationTree.Builder builder, int parent)
+          throws XmlPullParserException, IOException {
         parser.require(XmlPullParser.START_TAG, null, null);
         int id;
         String idStr = parser.getAttributeValue(null, "id");
@@ -131,39 +131,28 @@ public class ResourcesLocationsGetter implements LocationsGetter {
 
         String colorStr = parser.getAttributeValue(null, "color");
 
-        final MachineGroupingBuilder builder = new MachineGroupingBuilder()
-              .setId(id).setName(name).setType(type)
-              .setLatitude(latitude).setLongitude(longitude);
-
+        Integer color = null;
         if (!TextUtils.isEmpty(colorStr)) {
             try {
-                builder.setColor(Color.parseColor(colorStr));
+                color = Color.parseColor(colorStr);
             } catch (Exception e) {
                 // Don't set the color if it can't be parsed
             }
         }
 
-        MachineGrouping grouping = builder
-              .build();
-
-        List<MachineGrouping> children = new ArrayList<MachineGrouping>();
+        if (name == null)
+            throw new XmlPullParserException("Name is required " + parser.getPositionDescription());
+        final int index = builder.add(parent, id, name, type, latitude, longitude, color);
 
         while (parser.next() != XmlPullParser.END_TAG) {
             if (parser.getEventType() != XmlPullParser.START_TAG)
                 continue;
             String childName = parser.getName();
             if (validType(childName))
-                children.add(readGrouping(parser));
-        }
-
-        grouping.children.addAll(children);
-
-        for (MachineGrouping child : children) {
-            child.parent = grouping;
+                readGrouping(parser, builder, index);
         }
 
         parser.require(XmlPullParser.END_TAG, null, null);
-        return grouping;
     }
 
     protected boolean validType(@Nullable String from) {
@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.model.Room;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import air.air.net.zdremann.zsuds.BuildConfig;
+
+/**
+ * Keeps the most recently loaded rooms in memory, in front of another {@link MachineGetter}.
+ * <ul>
+ * <li>Entries younger than the TTL are returned without asking the wrapped getter.</li>
+ * <li>Entries older than the TTL, but within the stale window, are returned immediately and
+ * reloaded in the background.</li>
+ * <li>Anything older is loaded synchronously. If that fails, a single room's last good result
+ * is handed over in a {@link StaleMachinesException}, however old it is; a batch leaves the room
+ * out, like any other room that failed.</li>
+ * </ul>
+ * Served rooms keep the time they were loaded in {@link Room#getTimeLoaded()}, so callers can
+ * tell how old they are.
+ * At most <code>maxEntries</code> rooms are kept, evicting the least recently used.
+ * <p>
+ * Only one load per room runs at a time: a request for a room that is already being loaded, in
+ * the foreground or the background, waits for that load and shares its result.
+ */
+public class CachingMachineGetter implements MachineGetter {
+    private static final String TAG = "CachingMachineGetter";
+
+    public interface OnRevalidatedListener {
+        /**
+         * Called on the revalidation executor when a background reload found that a room had
+         * changed since it was last served.
+         */
+        void onRevalidated(long roomId);
+    }
+
+    @NotNull
+    private final MachineGetter mGetter;
+    @NotNull
+    private final Executor mRevalidationExecutor;
+    private final long mTtlMillis;
+    private final long mStaleMillis;
+    private final LinkedHashMap<Long, Entry> mEntries;
+    private final Map<Long, Flight> mInFlight = new HashMap<Long, Flight>();
+    @Nullable
+    private volatile OnRevalidatedListener mListener;
+
+    private long mHits;
+    private long mStaleHits;
+    private long mMisses;
+    private long mFallbacks;
+    private long mCoalesced;
+    private long mServedAgeMillis;
+
+    /**
+     * @param ttlMillis   how long a room is served without reloading it
+     * @param staleMillis how long after the TTL a room is still served while it reloads
+     */
+    public CachingMachineGetter(
+          @NotNull MachineGetter getter, @NotNull Executor revalidationExecutor, long ttlMillis,
+          long staleMillis, final int maxEntries) {
+        mGetter = getter;
+        mRevalidationExecutor = revalidationExecutor;
+        mTtlMillis = ttlMillis;
+        mStaleMillis = staleMillis;
+        mEntries = new LinkedHashMap<Long, Entry>(maxEntries + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public void setOnRevalidatedListener(@Nullable OnRevalidatedListener listener) {
+        mListener = listener;
+    }
+
+    @NotNull
+    public MachineGetter getDelegate() {
+        return mGetter;
+    }
+
+    @Override
+    public List<Machine> getMachines(long roomId) throws IOException {
+        final Entry cached = lookup(roomId);
+        if (cached != null)
+            return MachineGetters.copy(cached.machines);
+
+        try {
+            final Flight flight = new Flight();
+            final Flight joined = joinOrTakeOff(roomId, flight);
+            if (joined != null)
+                return MachineGetters.copy(joined.await());
+
+            try {
+                final List<Machine> machines = mGetter.getMachines(roomId);
+                put(roomId, machines);
+                flight.succeed(machines);
+                return machines;
+            } catch (IOException e) {
+                flight.fail(e);
+                throw e;
+            } catch (RuntimeException e) {
+                flight.fail(new IOException(e));
+                throw e;
+            } finally {
+                land(roomId, flight);
+            }
+        } catch (IOException e) {
+            final Entry fallback = fallback(roomId);
+            if (fallback == null)
+                throw e;
+            throw new StaleMachinesException(
+                  MachineGetters.copy(fallback.machines), fallback.loadedAt, e
+            );
+        }
+    }
+
+    @Override
+    public Map<Long, List<Machine>> getMachines(long... roomIds) throws IOException {
+        final Map<Long, List<Machine>> result = new HashMap<Long, List<Machine>>(roomIds.length);
+        final long[] missing = new long[roomIds.length];
+        int missingCount = 0;
+        for (long roomId : roomIds) {
+            final Entry cached = lookup(roomId);
+            if (cached != null)
+                result.put(roomId, MachineGetters.copy(cached.machines));
+            else
+                missing[missingCount++] = roomId;
+        }
+        if (missingCount == 0)
+            return result;
+
+        // Rooms someone else is already loading are waited for after our own batch
+        final Map<Long, Flight> joined = new HashMap<Long, Flight>();
+        final Map<Long, Flight> flights = new HashMap<Long, Flight>();
+        final long[] toLoad = takeOff(missing, missingCount, joined, flights);
+
+        IOException exception = null;
+        try {
+            final Map<Long, List<Machine>> loaded = toLoad.length == 0 ?
+                  new HashMap<Long, List<Machine>>() : mGetter.getMachines(toLoad);
+            for (Map.Entry<Long, List<Machine>> entry : loaded.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            result.putAll(loaded);
+        } catch (IOException e) {
+            exception = e;
+        } finally {
+            for (Map.Entry<Long, Flight> entry : flights.entrySet()) {
+                final List<Machine> machines = result.get(entry.getKey());
+                if (machines != null)
+                    entry.getValue().succeed(machines);
+                else
+                    entry.getValue().fail(
+                          exception != null ? exception : new IOException("Room not loaded")
+                    );
+                land(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (Map.Entry<Long, Flight> entry : joined.entrySet()) {
+            try {
+                result.put(entry.getKey(), MachineGetters.copy(entry.getValue().await()));
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+
+        if (result.isEmpty() && exception != null)
+            throw exception;
+        return result;
+    }
+
+    @NotNull
+    public synchronized Stats getStats() {
+        return new Stats(
+              mHits, mStaleHits, mMisses, mFallbacks, mCoalesced, mServedAgeMillis,
+              mEntries.size()
+        );
+    }
+
+    /**
+     * @return the load of the room already in flight, or <code>null</code> if there was none and
+     * <code>flight</code> was registered instead. The caller must then complete and
+     * {@link #land(long, Flight)} it.
+     */
+    @Nullable
+    private synchronized Flight joinOrTakeOff(long roomId, @NotNull Flight flight) {
+        final Flight inFlight = mInFlight.get(roomId);
+        if (inFlight != null) {
+            mCoalesced++;
+            return inFlight;
+        }
+        mInFlight.put(roomId, flight);
+        return null;
+    }
+
+    /**
+     * Sorts the first <code>count</code> rooms into those already in flight, put into
+     * <code>joined</code>, and those the caller must load, registered in <code>flights</code>.
+     *
+     * @return the rooms the caller must load
+     */
+    private synchronized long[] takeOff(
+          long[] roomIds, int count, Map<Long, Flight> joined, Map<Long, Flight> flights) {
+        final long[] toLoad = new long[count];
+        int loadCount = 0;
+        for (int i = 0; i < count; i++) {
+            final long roomId = roomIds[i];
+            final Flight inFlight = mInFlight.get(roomId);
+            if (inFlight != null) {
+                mCoalesced++;
+                joined.put(roomId, inFlight);
+            } else if (!flights.containsKey(roomId)) {
+                final Flight flight = new Flight();
+                mInFlight.put(roomId, flight);
+                flights.put(roomId, flight);
+                toLoad[loadCount++] = roomId;
+            }
+        }
+        final long[] result = new long[loadCount];
+        System.arraycopy(toLoad, 0, result, 0, loadCount);
+        return result;
+    }
+
+    private synchronized void land(long roomId, @NotNull Flight flight) {
+        if (mInFlight.get(roomId) == flight)
+            mInFlight.remove(roomId);
+    }
+
+    /**
+     * @return the cached entry if it may be served, starting a reload if it is stale
+     */
+    @Nullable
+    private synchronized Entry lookup(long roomId) {
+        final Entry entry = mEntries.get(roomId);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+
+        final long age = SystemClock.elapsedRealtime() - entry.loadedAt;
+        if (age < mTtlMillis) {
+            mHits++;
+        } else if (age < mTtlMillis + mStaleMillis) {
+            mStaleHits++;
+            if (!entry.revalidating && !mInFlight.containsKey(roomId)) {
+                entry.revalidating = true;
+                final Flight flight = new Flight();
+                mInFlight.put(roomId, flight);
+                revalidate(roomId, entry, flight);
+            }
+        } else {
+            mMisses++;
+            return null;
+        }
+        mServedAgeMillis += age;
+        return entry;
+    }
+
+    @Nullable
+    private synchronized Entry fallback(long roomId) {
+        final Entry entry = mEntries.get(roomId);
+        if (entry != null) {
+            mFallbacks++;
+            mServedAgeMillis += SystemClock.elapsedRealtime() - entry.loadedAt;
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "Serving last good result for room " + roomId);
+        }
+        return entry;
+    }
+
+    private synchronized void put(long roomId, List<Machine> machines) {
+        final long loadedAt = machines instanceof Room
+                              ? ((Room) machines).getTimeLoaded()
+                              : SystemClock.elapsedRealtime();
+        mEntries.put(roomId, new Entry(MachineGetters.copy(machines), loadedAt));
+    }
+
+    /**
+     * Reloads the room in the background. If the executor has no room for it, the stale entry is
+     * served as is and a later lookup tries again.
+     */
+    private void revalidate(final long roomId, final Entry stale, final Flight flight) {
+        try {
+            mRevalidationExecutor.execute(
+                  new Runnable() {
+                      @Override
+                      public void run() {
+                          final List<Machine> machines;
+                          try {
+                              machines = mGetter.getMachines(roomId);
+                          } catch (Exception e) {
+                              flight.fail(
+                                    e instanceof IOException ? (IOException) e : new IOException(e)
+                              );
+                              synchronized (CachingMachineGetter.this) {
+                                  stale.revalidating = false;
+                                  land(roomId, flight);
+                              }
+                              return;
+                          }
+                          put(roomId, machines);
+                          flight.succeed(machines);
+                          land(roomId, flight);
+
+                          final OnRevalidatedListener listener = mListener;
+                          if (listener != null && !machines.equals(stale.machines))
+                              listener.onRevalidated(roomId);
+                      }
+                  }
+            );
+        } catch (RejectedExecutionException e) {
+            flight.fail(new IOException("No thread to reload room " + roomId, e));
+            synchronized (this) {
+                stale.revalidating = false;
+                land(roomId, flight);
+            }
+        }
+    }
+
+    /**
+     * A load of one room that other requests for the room can wait on.
+     */
+    private static final class Flight {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private List<Machine> mMachines;
+        private IOException mException;
+
+        void succeed(@NotNull List<Machine> machines) {
+            mMachines = machines;
+            mDone.countDown();
+        }
+
+        void fail(@NotNull IOException exception) {
+            mException = exception;
+            mDone.countDown();
+        }
+
+        @NotNull
+        List<Machine> await() throws IOException {
+            try {
+                mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for another load");
+            }
+            if (mException != null)
+                throw mException;
+            return mMachines;
+        }
+    }
+
+    private static final class Entry {
+        @NotNull
+        final List<Machine> machines;
+        final long loadedAt;
+        boolean revalidating;
+
+        Entry(@NotNull List<Machine> machines, long loadedAt) {
+            this.machines = machines;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    public static class Stats {
+        public final long hits;
+        public final long staleHits;
+        public final long misses;
+        /**
+         * Times the last good result was handed over because loading failed.
+         */
+        public final long fallbacks;
+        /**
+         * Loads that waited for a load of the same room already in flight, instead of starting
+         * their own.
+         */
+        public final long coalesced;
+        public final long servedAgeMillis;
+        public final int size;
+
+        Stats(
+              long hits, long staleHits, long misses, long fallbacks, long coalesced,
+              long servedAgeMillis, int size) {
+            this.hits = hits;
+            this.staleHits = staleHits;
+            this.misses = misses;
+            this.fallbacks = fallbacks;
+            this.coalesced = coalesced;
+            this.servedAgeMillis = servedAgeMillis;
+            this.size = size;
+        }
+
+        /**
+         * @return the mean age of the entries served from the cache
+         */
+        public long averageServedAgeMillis() {
+            final long served = hits + staleHits + fallbacks;
+            return served == 0 ? 0 : servedAgeMillis / served;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                  Locale.US,
+                  "cache: %d rooms, %d hits, %d stale, %d misses, %d fallbacks, %d coalesced, " +
+                        "%d ms avg age",
+                  size, hits, staleHits, misses, fallbacks, coalesced, averageServedAgeMillis()
+            );
+        }
+    }
+}
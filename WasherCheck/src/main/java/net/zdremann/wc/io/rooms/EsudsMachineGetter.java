@@ -22,46 +22,58 @@
 
 package net.zdremann.wc.io.rooms;
 
+import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.os.Build;
 import android.os.SystemClock;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.android.gms.analytics.HitBuilders;
 import com.google.android.gms.analytics.Tracker;
 
+import net.zdremann.wc.Main;
+import net.zdremann.wc.io.AndroidLogger;
 import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.model.Room;
 
 import org.jetbrains.annotations.NotNull;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import air.air.net.zdremann.zsuds.BuildConfig;
 
+@Singleton
 public class EsudsMachineGetter extends InternetMachineGetter {
     private static final String TAG = "EsudsMachineGetter";
-    private static final long ONE_MINUTE = 60000;
+    /**
+     * Debug setting: read rooms with {@link EsudsRoomHtmlScanner} instead of
+     * {@link EsudsRoomHtmlParser}
+     */
+    public static final String PREF_USE_ROW_SCANNER = "net.zdremann.wc.esuds_row_scanner";
+    private final RoomValidatorCache mValidators = new RoomValidatorCache();
     @Inject
     EsudsRoomHtmlDownloader mDownloader;
     @Inject
     EsudsRoomHtmlParser mParser;
+    @Inject
+    EsudsRoomHtmlScanner mScanner;
+    @Inject
+    @Main
+    SharedPreferences mPreferences;
 
     @Inject
     public EsudsMachineGetter(Tracker gaTracker, ConnectivityManager connectivityManager) {
@@ -73,12 +85,28 @@ public class EsudsMachineGetter extends InternetMachineGetter {
         super.getMachines(roomId);
 
         List<Machine> machines;
-        Reader reader = null;
+        Closeable input = null;
         try {
-            reader = mDownloader.getReader(roomId);
-            long timeStart = System.currentTimeMillis();
-
-            machines = mParser.readMachines(roomId, reader);
+            HttpURLConnection connection = mDownloader.openConnection(roomId);
+            mValidators.addValidators(roomId, connection);
+
+            List<Machine> cached = mValidators.getIfNotModified(roomId, connection);
+            if (cached != null)
+                return cached;
+
+            long timeStart;
+            if (mPreferences.getBoolean(PREF_USE_ROW_SCANNER, false)) {
+                final InputStream stream = mDownloader.getInputStream(connection);
+                input = stream;
+                timeStart = System.currentTimeMillis();
+                machines = mScanner.readMachines(roomId, stream);
+            } else {
+                final Reader reader = mDownloader.getReader(connection);
+                input = reader;
+                timeStart = System.currentTimeMillis();
+                machines = mParser.readMachines(roomId, reader);
+            }
+            mValidators.put(roomId, connection, machines);
 
             long parseTime = System.currentTimeMillis() - timeStart;
 
@@ -107,8 +135,8 @@ public class EsudsMachineGetter extends InternetMachineGetter {
             else
                 throw new IOException();
         } finally {
-            if (reader != null) {
-                reader.close();
+            if (input != null) {
+                input.close();
             }
         }
     }
@@ -117,75 +145,74 @@ public class EsudsMachineGetter extends InternetMachineGetter {
         private static final String TAG = "EsudsRoomHtmlDownloader";
         private static final String BASE_URL = "http://esuds.net/RoomStatus/machineStatus.i";
         private static final String ROOM_NUM_ATTR_NAME = "bottomLocationId";
-        private static final Pattern HTML_REMOVE_PATTERN;
 
         @Inject
         Tracker gaTracker;
 
-        static {
-            final String[] HTML_REMOVALS = new String[]{
-                  "xmlns=\"[^\"]*\"", "<!DOCTYPE[^>]*>",
-                  "<script[^>]*>(?>.*?</script>)", "&nbsp;"
-            };
-            StringBuilder regexp = new StringBuilder(HTML_REMOVALS[0]);
-            for (int i = 1; i < HTML_REMOVALS.length; i++) {
-                regexp.append('|').append(HTML_REMOVALS[i]);
-            }
-            HTML_REMOVE_PATTERN = Pattern
-                  .compile(regexp.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-        }
-
         @Inject
         public EsudsRoomHtmlDownloader() {
 
         }
 
         public Reader getReader(long roomId) throws IOException {
-            // TODO: Filter stream live
-            final long timeStart = SystemClock.elapsedRealtime();
-            final char[] buffer = new char[4 * 1024];
-            final StringBuilder builder = new StringBuilder();
+            return getReader(openConnection(roomId));
+        }
+
+        /**
+         * Opens, but does not connect, a connection for the room's status page. Request
+         * headers can still be added to it.
+         */
+        @NotNull
+        public HttpURLConnection openConnection(long roomId) throws IOException {
             final URL url = roomUrl(roomId);
-            Reader reader = null;
             HttpURLConnection connection;
-            try {
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setReadTimeout(30000);
-                connection.setUseCaches(false);
-                connection.connect();
-
-                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    throw new IOException(connection.getResponseMessage());
-                }
-                InputStream is = connection.getInputStream();
-                reader = new InputStreamReader(is);
-                int sizeRead;
-                while ((sizeRead = reader.read(buffer)) != -1) {
-                    builder.append(buffer, 0, sizeRead);
-                }
-            } finally {
-                if (reader != null)
-                    reader.close();
-            }
-
-            String html = builder.toString();
-            final Matcher m = HTML_REMOVE_PATTERN.matcher(html);
-            html = m.replaceAll("");
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setReadTimeout(30000);
+            connection.setUseCaches(false);
+            return connection;
+        }
 
-            long timeSpent = SystemClock.elapsedRealtime() - timeStart;
-            gaTracker.send(
-                  new HitBuilders.TimingBuilder()
-                        .setCategory("loading").setValue(timeSpent)
-                        .setVariable("room_loading").setLabel("download").build()
-            );
+        /**
+         * The returned reader is sanitized as it is read, so parsing can begin while the page
+         * is still downloading. The download time is reported once the reader is closed.
+         */
+        public Reader getReader(@NotNull HttpURLConnection connection) throws IOException {
+            return new EsudsHtmlFilterReader(new InputStreamReader(getInputStream(connection)));
+        }
 
-            if (BuildConfig.DEBUG)
-                Log.i(
-                      TAG,
-                      "Html Loading took " + (SystemClock.elapsedRealtime() - timeStart) + " millis"
-                );
+        /**
+         * The page's bytes as they arrive, unsanitized. The download time is reported once the
+         * stream is closed.
+         */
+        public InputStream getInputStream(@NotNull HttpURLConnection connection)
+              throws IOException {
+            final long timeStart = SystemClock.elapsedRealtime();
+            connection.connect();
 
-            return new StringReader(html);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException(connection.getResponseMessage());
+            }
+            return new FilterInputStream(connection.getInputStream()) {
+                private boolean mClosed = false;
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    if (mClosed)
+                        return;
+                    mClosed = true;
+
+                    long timeSpent = SystemClock.elapsedRealtime() - timeStart;
+                    gaTracker.send(
+                          new HitBuilders.TimingBuilder()
+                                .setCategory("loading").setValue(timeSpent)
+                                .setVariable("room_loading").setLabel("download").build()
+                    );
+
+                    if (BuildConfig.DEBUG)
+                        Log.i(TAG, "Html Loading took " + timeSpent + " millis");
+                }
+            };
         }
 
         @NotNull
@@ -202,29 +229,26 @@ public class EsudsMachineGetter extends InternetMachineGetter {
 
     public static class EsudsRoomHtmlParser {
         private static final String TAG = "EsudsRoomHtmlParser";
+        private final EsudsRoomReader mReader = new EsudsRoomReader(AndroidLogger.INSTANCE);
+        @NotNull
+        private final XmlPullParserPool mParsers;
 
         @Inject
-        public EsudsRoomHtmlParser() {
-
+        public EsudsRoomHtmlParser(@NotNull XmlPullParserPool parsers) {
+            mParsers = parsers;
         }
 
         @NotNull
         public List<Machine> readMachines(
               long roomId, Reader reader) throws XmlPullParserException, IOException {
             long startTime = SystemClock.elapsedRealtime();
-            List<Machine> result = new ArrayList<Machine>();
-
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            XmlPullParser parser = factory.newPullParser();
-            parser.setInput(reader);
-
-            int eventType;
-            while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
-                if (eventType == XmlPullParser.START_TAG && "tr".equals(parser.getName())) {
-                    String classAttr = parser.getAttributeValue(null, "class");
-                    if ("even".equals(classAttr) || "odd".equals(classAttr))
-                        result.add(readMachine(roomId, parser));
-                }
+            Room result = new Room(roomId);
+
+            XmlPullParser parser = mParsers.acquire(reader);
+            try {
+                mReader.readMachines(parser, new RoomSink(result));
+            } finally {
+                mParsers.release(parser);
             }
 
             if (BuildConfig.DEBUG)
@@ -234,121 +258,33 @@ public class EsudsMachineGetter extends InternetMachineGetter {
 
             return result;
         }
+    }
 
-        @NotNull
-        protected Machine readMachine(
-              final long roomId,
-              @NotNull
-              XmlPullParser parser) throws XmlPullParserException, IOException {
-            parser.require(XmlPullParser.START_TAG, "", "tr");
-
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, "", "td");
-            int machineId = readId(parser);
-
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, "", "td");
-            int machineNum = readNum(parser);
-
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, "", "td");
-            Machine.Type machineType = readType(parser);
-
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, "", "td");
-            Machine.Status machineStatus = readStatus(parser);
-
-            parser.nextTag();
-            parser.require(XmlPullParser.START_TAG, "", "td");
-            long machineTimeRemaining = readTimeRemaining(parser);
-
-            parser.nextTag();
-            parser.require(XmlPullParser.END_TAG, "", "tr");
-            return new Machine(roomId, machineId, machineNum, machineType, machineStatus, machineTimeRemaining);
-        }
-
-        protected int readId(
-              @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
-            int eventType = parser.next();
-            int value = -1;
-            while (eventType != XmlPullParser.END_TAG || !"td".equals(parser.getName())) {
-                if (eventType == XmlPullParser.START_TAG && "input".equals(parser.getName())) {
-                    try {
-                        value = Integer.parseInt(parser.getAttributeValue(null, "value"));
-                    } catch (NumberFormatException nfe) {
-                        value = -1;
-                    }
-                }
-                eventType = parser.next();
-            }
-
-            return value;
-        }
+    /**
+     * Reads rooms with {@link EsudsRowScanner}, straight from the page's bytes. Unlike
+     * {@link EsudsRoomHtmlParser}, markup it does not expect only costs the rows it is in.
+     */
+    public static class EsudsRoomHtmlScanner {
+        private static final String TAG = "EsudsRoomHtmlScanner";
 
-        protected int readNum(
-              @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
-            int num;
-            try {
-                num = Integer.parseInt(parser.nextText());
-            } catch (NumberFormatException nfe) {
-                num = -1;
-            }
+        @Inject
+        public EsudsRoomHtmlScanner() {
 
-            return num;
         }
 
         @NotNull
-        protected Machine.Status readStatus(
-              @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
-            parser.nextTag();
-
-            parser.require(XmlPullParser.START_TAG, null, "font");
-
-            final String text = parser.nextText();
-
-            parser.nextTag();
-
-            parser.require(XmlPullParser.END_TAG, null, "td");
-            if ("available".equalsIgnoreCase(text))
-                return Machine.Status.AVAILABLE;
-            else if ("cycle complete".equalsIgnoreCase(text))
-                return Machine.Status.CYCLE_COMPLETE;
-            else if ("in use".equalsIgnoreCase(text))
-                return Machine.Status.IN_USE;
-            else if ("unavailable".equalsIgnoreCase(text))
-                return Machine.Status.UNAVAILABLE;
-            else
-                return Machine.Status.UNKNOWN;
-        }
+        public List<Machine> readMachines(long roomId, InputStream in) throws IOException {
+            long startTime = SystemClock.elapsedRealtime();
+            Room result = new Room(roomId);
 
-        protected long readTimeRemaining(
-              @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
-            final String text = parser.nextText();
-            long time;
-            if (TextUtils.isEmpty(text)) {
-                time = Machine.NO_TIME_REMAINING;
-            } else {
-                try {
-                    time = (long) (Double.parseDouble(text) * ONE_MINUTE);
-                } catch (NumberFormatException nfe) {
-                    Log.d(TAG, "Unknown Time Remaining: " + text);
-                    time = Machine.NO_TIME_REMAINING;
-                }
-            }
+            new EsudsRowScanner(in, AndroidLogger.INSTANCE).readMachines(new RoomSink(result));
 
-            return time;
-        }
+            if (BuildConfig.DEBUG)
+                Log.i(
+                      TAG, "Scanning took " + (SystemClock.elapsedRealtime() - startTime) + " millis"
+                );
 
-        @NotNull
-        protected Machine.Type readType(
-              @NotNull XmlPullParser parser) throws XmlPullParserException, IOException {
-            String text = parser.nextText();
-            if (text.contains("Washer") || text.contains("washer"))
-                return Machine.Type.WASHER;
-            else if (text.contains("Dryer") || text.contains("dryer"))
-                return Machine.Type.DRYER;
-            else
-                return Machine.Type.UNKNOWN;
+            return result;
         }
     }
 }
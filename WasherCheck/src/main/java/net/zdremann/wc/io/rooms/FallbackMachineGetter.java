@@ -22,22 +22,138 @@
 
 package net.zdremann.wc.io.rooms;
 
+import android.os.SystemClock;
+
 import net.zdremann.wc.model.Machine;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class FallbackMachineGetter implements MachineGetter {
+    private static final double HEDGE_PERCENTILE = 0.95;
+
     private final List<? extends MachineGetter> getters;
+    private final List<LatencyTracker> latencies;
+    @Nullable
+    private final ExecutorService hedgeExecutor;
+    private final long defaultHedgeDelayMillis;
 
     public FallbackMachineGetter(List<? extends MachineGetter> getters) {
+        this(getters, null, 0);
+    }
+
+    /**
+     * Creates a getter that hedges its requests: if a getter has not answered within its
+     * observed 95th percentile latency (or <code>defaultHedgeDelayMillis</code>, until enough
+     * requests have been seen), the next getter is started alongside it on
+     * <code>hedgeExecutor</code>. The first successful result wins and the rest are cancelled.
+     * When the executor rejects a request, hedging stops and the remaining getters are tried in
+     * turn on the calling thread.
+     */
+    public FallbackMachineGetter(
+          List<? extends MachineGetter> getters, @Nullable ExecutorService hedgeExecutor,
+          long defaultHedgeDelayMillis) {
         this.getters = getters;
+        this.hedgeExecutor = hedgeExecutor;
+        this.defaultHedgeDelayMillis = defaultHedgeDelayMillis;
+        this.latencies = new ArrayList<LatencyTracker>(getters.size());
+        for (int i = 0; i < getters.size(); i++) {
+            latencies.add(new LatencyTracker());
+        }
+    }
+
+    /**
+     * @return the health of every getter that tracks it, including those in nested fallbacks,
+     * in configured order
+     */
+    public List<HealthTrackingMachineGetter.Health> getHealth() {
+        final List<HealthTrackingMachineGetter.Health> result =
+              new ArrayList<HealthTrackingMachineGetter.Health>(getters.size());
+        for (MachineGetter getter : getters) {
+            if (getter instanceof HealthTrackingMachineGetter)
+                result.add(((HealthTrackingMachineGetter) getter).getHealth());
+            else if (getter instanceof FallbackMachineGetter)
+                result.addAll(((FallbackMachineGetter) getter).getHealth());
+        }
+        return result;
+    }
+
+    /**
+     * Orders the getters to try, healthiest first. Getters with equal health keep their
+     * configured order, and getters whose circuit is open are left out, unless every getter's
+     * circuit is open. A circuit whose open period has passed is half-open and ranks first, so
+     * its probe is sent.
+     *
+     * @return indices into <code>getters</code>
+     */
+    private int[] order() {
+        final int size = getters.size();
+        final Integer[] indices = new Integer[size];
+        final int[] scores = new int[size];
+        boolean anyAvailable = false;
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+            final MachineGetter getter = getters.get(i);
+            if (getter instanceof HealthTrackingMachineGetter) {
+                final HealthTrackingMachineGetter tracked = (HealthTrackingMachineGetter) getter;
+                scores[i] = tracked.isAvailable() ? tracked.getHealth().score() : -1;
+            } else {
+                scores[i] = Integer.MAX_VALUE;
+            }
+            anyAvailable |= scores[i] >= 0;
+        }
+        // Arrays.sort on objects is stable
+        Arrays.sort(
+              indices, new Comparator<Integer>() {
+                  @Override
+                  public int compare(Integer lhs, Integer rhs) {
+                      final int l = scores[lhs];
+                      final int r = scores[rhs];
+                      return l < r ? 1 : (l == r ? 0 : -1);
+                  }
+              }
+        );
+
+        int count = size;
+        if (anyAvailable) {
+            while (scores[indices[count - 1]] < 0) {
+                count--;
+            }
+        }
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = indices[i];
+        }
+        return result;
     }
 
     @Override
     public List<Machine> getMachines(long roomId) throws IOException {
+        final int[] order = order();
+        if (hedgeExecutor != null && order.length > 1)
+            return getMachinesHedged(roomId, order, hedgeExecutor);
+
         IOException lastException = null;
-        for (MachineGetter getter : getters) {
+        for (int index : order) {
+            final MachineGetter getter = getters.get(index);
             try {
                 return getter.getMachines(roomId);
             }
@@ -54,4 +170,166 @@ public class FallbackMachineGetter implements MachineGetter {
         else
             throw new IOException();
     }
+
+    private List<Machine> getMachinesHedged(
+          long roomId, int[] order, ExecutorService executor) throws IOException {
+        final CompletionService<List<Machine>> completionService =
+              new ExecutorCompletionService<List<Machine>>(executor);
+        final List<Future<List<Machine>>> started =
+              new ArrayList<Future<List<Machine>>>(order.length);
+        IOException lastException = null;
+        int running = 0;
+        boolean hedging = true;
+
+        try {
+            final Future<List<Machine>> first = trySubmit(completionService, order[0], roomId);
+            if (first != null) {
+                started.add(first);
+                running++;
+            }
+
+            while (running > 0) {
+                final Future<List<Machine>> done;
+                if (hedging && started.size() < order.length) {
+                    final int newest = order[started.size() - 1];
+                    done = completionService.poll(hedgeDelay(newest), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        // Too slow, start the next getter alongside it
+                        final Future<List<Machine>> hedge =
+                              trySubmit(completionService, order[started.size()], roomId);
+                        if (hedge != null) {
+                            started.add(hedge);
+                            running++;
+                        } else {
+                            // The executor is full, wait for what is already running
+                            hedging = false;
+                        }
+                        continue;
+                    }
+                } else {
+                    done = completionService.take();
+                }
+                running--;
+
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException)
+                        lastException = (IOException) e.getCause();
+                    // Non-IO exceptions are ignored, as when not hedging
+
+                    if (started.size() < order.length) {
+                        final Future<List<Machine>> next =
+                              trySubmit(completionService, order[started.size()], roomId);
+                        if (next != null) {
+                            started.add(next);
+                            running++;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading room " + roomId);
+        } finally {
+            for (Future<List<Machine>> future : started) {
+                future.cancel(true);
+            }
+        }
+
+        // Getters the executor had no room for are tried in turn on this thread
+        for (int i = started.size(); i < order.length; i++) {
+            try {
+                return getters.get(order[i]).getMachines(roomId);
+            } catch (IOException e) {
+                lastException = e;
+            } catch (Exception ignore) {
+                // Ignore non-IO exceptions
+            }
+        }
+
+        if (lastException != null)
+            throw lastException;
+        else
+            throw new IOException();
+    }
+
+    /**
+     * @return the started request, or null if the executor has no room for it
+     */
+    @Nullable
+    private Future<List<Machine>> trySubmit(
+          CompletionService<List<Machine>> completionService, final int index,
+          final long roomId) {
+        final MachineGetter getter = getters.get(index);
+        final LatencyTracker latency = latencies.get(index);
+        try {
+            return completionService.submit(
+                  new Callable<List<Machine>>() {
+                      @Override
+                      public List<Machine> call() throws Exception {
+                          final long start = SystemClock.elapsedRealtime();
+                          final List<Machine> result = getter.getMachines(roomId);
+                          // Not for a cancelled loser, its latency is how long it took to notice
+                          if (!Thread.currentThread().isInterrupted())
+                              latency.record(SystemClock.elapsedRealtime() - start);
+                          return result;
+                      }
+                  }
+            );
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private long hedgeDelay(int index) {
+        return latencies.get(index).percentile(HEDGE_PERCENTILE, defaultHedgeDelayMillis);
+    }
+
+    /**
+     * Asks each getter in turn for the rooms that the getters before it could not load.
+     */
+    @Override
+    public Map<Long, List<Machine>> getMachines(long... roomIds) throws IOException {
+        final Map<Long, List<Machine>> result = new HashMap<Long, List<Machine>>(roomIds.length);
+        final Set<Long> remaining = new LinkedHashSet<Long>(roomIds.length);
+        for (long roomId : roomIds) {
+            remaining.add(roomId);
+        }
+
+        IOException lastException = null;
+        for (int index : order()) {
+            if (remaining.isEmpty())
+                break;
+            final MachineGetter getter = getters.get(index);
+            try {
+                Map<Long, List<Machine>> loaded = getter.getMachines(toArray(remaining));
+                result.putAll(loaded);
+                remaining.removeAll(loaded.keySet());
+            }
+            catch (IOException e) {
+                // Continue to next getter
+                lastException = e;
+            }
+            catch (Exception ignore) {
+                // Ignore non-IO exceptions
+            }
+        }
+        if (result.isEmpty() && roomIds.length > 0) {
+            if (lastException != null)
+                throw lastException;
+            else
+                throw new IOException();
+        }
+        return result;
+    }
+
+    private static long[] toArray(Set<Long> roomIds) {
+        final long[] result = new long[roomIds.size()];
+        int i = 0;
+        for (long roomId : roomIds) {
+            result[i++] = roomId;
+        }
+        return result;
+    }
 }
@@ -25,25 +25,37 @@ package net.zdremann.wc.io.rooms;
 import android.annotation.TargetApi;
 import android.net.ConnectivityManager;
 import android.os.Build;
-import android.util.JsonReader;
 
 import com.google.android.gms.analytics.HitBuilders;
 import com.google.android.gms.analytics.Tracker;
 
 import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.model.Room;
+
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
+@Singleton
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class GaeMachineGetter extends InternetMachineGetter {
+    private static final String BASE_URL = "http://net-zdremann-wc.appspot.com";
+    /**
+     * Whether the status server answers <code>/status?rooms=</code>. It does not yet, so until it
+     * does batches are loaded one room at a time.
+     */
+    static final boolean BATCH_ENDPOINT = false;
+    private final RoomValidatorCache mValidators = new RoomValidatorCache();
 
     @Inject
     public GaeMachineGetter(Tracker gaTracker, ConnectivityManager connectivityManager) {
@@ -54,83 +66,117 @@ public class GaeMachineGetter extends InternetMachineGetter {
     public List<Machine> getMachines(long roomId) throws IOException {
         super.getMachines(roomId);
 
-        List<Machine> result = new ArrayList<Machine>();
-        final URL url = new URL("http://net-zdremann-wc.appspot.com/status/" + roomId);
+        final URL url = new URL(BASE_URL + "/status/" + roomId);
         long timeStart = System.currentTimeMillis();
-        HttpURLConnection connection;
-        connection = (HttpURLConnection) url.openConnection();
-        connection.setInstanceFollowRedirects(true);
-        connection.setUseCaches(false);
-        connection.setDefaultUseCaches(false);
-        connection.setDoInput(true);
-        connection.setConnectTimeout(5000);
-        connection.setReadTimeout(5000);
-        InputStream inputStream = connection.getInputStream();
-        JsonReader reader = new JsonReader(
-              new InputStreamReader(inputStream)
+        HttpURLConnection connection = openConnection(url);
+        mValidators.addValidators(roomId, connection);
+
+        List<Machine> cached = mValidators.getIfNotModified(roomId, connection);
+        if (cached != null) {
+            gaTracker.send(
+                  new HitBuilders.TimingBuilder()
+                        .setCategory("loading").setValue(System.currentTimeMillis() - timeStart)
+                        .setVariable("room_loading").setLabel("not_modified").build()
+            );
+            return cached;
+        }
+
+        final Room result = new Room(roomId);
+        final InputStream inputStream = connection.getInputStream();
+        try {
+            new GaeStatusDecoder(inputStream).readRoom(new RoomSink(result));
+        } finally {
+            inputStream.close();
+        }
+        mValidators.put(roomId, connection, result);
+
+        long timeEnd = System.currentTimeMillis();
+        gaTracker.send(
+              new HitBuilders.TimingBuilder()
+                    .setCategory("loading").setValue(timeEnd - timeStart)
+                    .setVariable("room_loading").build()
         );
-        reader.beginArray();
-        while(reader.hasNext()) {
-            reader.beginObject();
-            long esuds_id = Machine.NO_ESUDS_ID;
-            long timeRemaining = Machine.NO_TIME_REMAINING;
-            Machine.Status status = Machine.Status.UNKNOWN;
-            int number = -1;
-            Machine.Type type = Machine.Type.UNKNOWN;
-            while(reader.hasNext()) {
-                String nextName = reader.nextName();
-                switch (nextName) {
-                case "esuds_id":
-                    esuds_id = reader.nextLong();
-                    break;
-                case "number":
-                    number = reader.nextInt();
-                    break;
-                case "status":
-                    String statusStr = reader.nextString();
-                    if ("Available".equalsIgnoreCase(statusStr))
-                        status = Machine.Status.AVAILABLE;
-                    else if ("Cycle Complete".equalsIgnoreCase(statusStr))
-                        status = Machine.Status.CYCLE_COMPLETE;
-                    else if ("In Use".equalsIgnoreCase(statusStr))
-                        status = Machine.Status.IN_USE;
-                    else if ("Unavailable".equalsIgnoreCase(statusStr))
-                        status = Machine.Status.UNAVAILABLE;
-                    else
-                        status = Machine.Status.UNAVAILABLE;
-                    break;
-                case "type":
-                    String typeName = reader.nextString();
-                    assert typeName != null;
-                    if (typeName.toLowerCase().contains("washer"))
-                        type = Machine.Type.WASHER;
-                    else if (typeName.toLowerCase().contains("dryer"))
-                        type = Machine.Type.DRYER;
-                    else
-                        type = Machine.Type.UNKNOWN;
-                    break;
-                case "timeRemaining":
-                    timeRemaining = reader.nextLong();
-                    break;
-                default:
-                    reader.skipValue();
-                    break;
-                }
-            }
 
-            reader.endObject();
+        return result;
+    }
 
-            Machine machine = new Machine(roomId, esuds_id, number, type, status, timeRemaining);
+    /**
+     * Loads every room in a single request to <code>/status?rooms=1,2,3</code>, which answers
+     * with an object mapping each room id to the same array <code>/status/{roomId}</code>
+     * returns. Falls back to one request per room if the server rejects the batch request for
+     * any reason but authentication, or answers with something that cannot be decoded.
+     */
+    @Override
+    public Map<Long, List<Machine>> getMachines(long... roomIds) throws IOException {
+        if (!BATCH_ENDPOINT || roomIds.length <= 1)
+            return super.getMachines(roomIds);
+        checkConnected();
+
+        final StringBuilder query = new StringBuilder(BASE_URL).append("/status?rooms=");
+        for (int i = 0; i < roomIds.length; i++) {
+            if (i != 0)
+                query.append(',');
+            query.append(roomIds[i]);
+        }
 
-            result.add(machine);
+        long timeStart = System.currentTimeMillis();
+        HttpURLConnection connection = openConnection(new URL(query.toString()));
+        if (isBatchRejected(connection.getResponseCode())) {
+            connection.disconnect();
+            return super.getMachines(roomIds);
         }
+
+        final Map<Long, List<Machine>> result = new HashMap<Long, List<Machine>>(roomIds.length);
+        final InputStream inputStream = connection.getInputStream();
+        try {
+            new GaeStatusDecoder(inputStream).readRooms(new GaeStatusDecoder.RoomSinks() {
+                @Nullable
+                @Override
+                public MachineSink sinkFor(long roomId) {
+                    final Room room = new Room(roomId);
+                    result.put(roomId, room);
+                    return new RoomSink(room);
+                }
+            });
+        } catch (InterruptedIOException e) {
+            // Including timeouts, which asking for each room would only repeat
+            throw e;
+        } catch (IOException e) {
+            return super.getMachines(roomIds);
+        } finally {
+            inputStream.close();
+        }
+
         long timeEnd = System.currentTimeMillis();
         gaTracker.send(
               new HitBuilders.TimingBuilder()
                     .setCategory("loading").setValue(timeEnd - timeStart)
-                    .setVariable("room_loading").build()
+                    .setVariable("room_loading").setLabel("batch").build()
         );
 
         return result;
     }
+
+    /**
+     * Any error but an auth failure may be down to the batch request alone, so single rooms are
+     * still worth asking for. An auth failure would fail every single-room request as well, so it
+     * is left to fail the batch.
+     */
+    private static boolean isBatchRejected(int responseCode) {
+        return responseCode >= 400
+              && responseCode != HttpURLConnection.HTTP_UNAUTHORIZED
+              && responseCode != HttpURLConnection.HTTP_FORBIDDEN;
+    }
+
+    private static HttpURLConnection openConnection(URL url) throws IOException {
+        HttpURLConnection connection;
+        connection = (HttpURLConnection) url.openConnection();
+        connection.setInstanceFollowRedirects(true);
+        connection.setUseCaches(false);
+        connection.setDefaultUseCaches(false);
+        connection.setDoInput(true);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        return connection;
+    }
 }
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.zdremann.wc.model.Machine;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import air.air.net.zdremann.zsuds.BuildConfig;
+
+/**
+ * Wraps a {@link MachineGetter}, keeping its success rate and latency over a sliding window of
+ * recent requests.
+ * <p>
+ * After {@link #FAILURE_THRESHOLD} failures in a row the circuit opens, and requests fail
+ * immediately instead of reaching the wrapped getter. Once {@link #OPEN_MILLIS} have passed a
+ * single probe request is let through: if it succeeds the circuit closes again, otherwise it
+ * stays open for another {@link #OPEN_MILLIS}.
+ * <p>
+ * Requests that fail because the device is offline, and requests that were cancelled, such as
+ * the losers of a hedged request, are not counted at all.
+ */
+public class HealthTrackingMachineGetter implements MachineGetter {
+    private static final String TAG = "MachineGetterHealth";
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = 60 * 1000;
+    private static final int WINDOW_SIZE = 20;
+
+    public enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    @NotNull
+    private final String mName;
+    @NotNull
+    private final MachineGetter mGetter;
+
+    private final boolean[] mOutcomes = new boolean[WINDOW_SIZE];
+    private final long[] mLatencies = new long[WINDOW_SIZE];
+    private int mCount = 0;
+    private int mNext = 0;
+
+    private CircuitState mState = CircuitState.CLOSED;
+    private int mConsecutiveFailures = 0;
+    private long mOpenedAt;
+    private boolean mProbeInFlight = false;
+
+    public HealthTrackingMachineGetter(@NotNull String name, @NotNull MachineGetter getter) {
+        mName = name;
+        mGetter = getter;
+    }
+
+    @Override
+    public List<Machine> getMachines(long roomId) throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+        final boolean probe = acquire(start);
+        try {
+            final List<Machine> result = mGetter.getMachines(roomId);
+            if (Thread.currentThread().isInterrupted())
+                release(probe);
+            else
+                record(probe, true, SystemClock.elapsedRealtime() - start);
+            return result;
+        } catch (IOException e) {
+            if (isBackendFailure(e))
+                record(probe, false, SystemClock.elapsedRealtime() - start);
+            else
+                release(probe);
+            throw e;
+        } catch (RuntimeException e) {
+            record(probe, false, SystemClock.elapsedRealtime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<Long, List<Machine>> getMachines(long... roomIds) throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+        final boolean probe = acquire(start);
+        try {
+            final Map<Long, List<Machine>> result = mGetter.getMachines(roomIds);
+            if (Thread.currentThread().isInterrupted())
+                release(probe);
+            else
+                record(probe, true, SystemClock.elapsedRealtime() - start);
+            return result;
+        } catch (IOException e) {
+            if (isBackendFailure(e))
+                record(probe, false, SystemClock.elapsedRealtime() - start);
+            else
+                release(probe);
+            throw e;
+        } catch (RuntimeException e) {
+            record(probe, false, SystemClock.elapsedRealtime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether a request would currently reach the wrapped getter
+     */
+    public synchronized boolean isAvailable() {
+        updateState(SystemClock.elapsedRealtime());
+        switch (mState) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            return false;
+        default:
+            return !mProbeInFlight;
+        }
+    }
+
+    @NotNull
+    public synchronized Health getHealth() {
+        updateState(SystemClock.elapsedRealtime());
+        return health();
+    }
+
+    @NotNull
+    private Health health() {
+        int successes = 0;
+        long totalLatency = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mOutcomes[i])
+                successes++;
+            totalLatency += mLatencies[i];
+        }
+        return new Health(
+              mName, mState, mCount, mCount == 0 ? 1.0 : (double) successes / mCount,
+              mCount == 0 ? 0 : totalLatency / mCount
+        );
+    }
+
+    /**
+     * Moves an open circuit to half-open once {@link #OPEN_MILLIS} have passed, so it is ranked
+     * as ready for a probe before any request reaches {@link #acquire(long)}
+     */
+    private void updateState(long now) {
+        if (mState == CircuitState.OPEN && now - mOpenedAt >= OPEN_MILLIS)
+            setState(CircuitState.HALF_OPEN);
+    }
+
+    /**
+     * @return whether this request is the half-open probe
+     * @throws IOException if the circuit is open, or a probe is already in flight
+     */
+    private synchronized boolean acquire(long now) throws IOException {
+        updateState(now);
+        switch (mState) {
+        case OPEN:
+            throw new IOException("Circuit open for " + mName);
+        case HALF_OPEN:
+            if (mProbeInFlight)
+                throw new IOException("Circuit half-open for " + mName + ", probe in flight");
+            mProbeInFlight = true;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Every request counts towards the window, but only the probe moves a half-open circuit, and
+     * requests started before the circuit opened leave it alone.
+     */
+    private synchronized void record(boolean probe, boolean success, long latencyMillis) {
+        mOutcomes[mNext] = success;
+        mLatencies[mNext] = latencyMillis;
+        mNext = (mNext + 1) % WINDOW_SIZE;
+        if (mCount < WINDOW_SIZE)
+            mCount++;
+
+        if (probe) {
+            mProbeInFlight = false;
+            if (success) {
+                mConsecutiveFailures = 0;
+                setState(CircuitState.CLOSED);
+            } else {
+                mOpenedAt = SystemClock.elapsedRealtime();
+                setState(CircuitState.OPEN);
+            }
+            return;
+        }
+        if (mState != CircuitState.CLOSED)
+            return;
+
+        if (success) {
+            mConsecutiveFailures = 0;
+        } else if (++mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            mOpenedAt = SystemClock.elapsedRealtime();
+            setState(CircuitState.OPEN);
+        }
+    }
+
+    /**
+     * Gives up the probe of a request that was not recorded, so the next request probes instead
+     */
+    private synchronized void release(boolean probe) {
+        if (probe)
+            mProbeInFlight = false;
+    }
+
+    /**
+     * @return whether the failure came from the backend, rather than from the device being
+     * offline or the request being cancelled, neither of which says anything about its health
+     */
+    private static boolean isBackendFailure(IOException e) {
+        if (e instanceof NotConnectedException)
+            return false;
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))
+            return false;
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    private void setState(CircuitState state) {
+        mState = state;
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, health().toString());
+    }
+
+    @Override
+    public String toString() {
+        return "HealthTrackingMachineGetter{" +
+              "mName='" + mName + '\'' +
+              ", mState=" + mState +
+              '}';
+    }
+
+    public static class Health {
+        @NotNull
+        public final String name;
+        @NotNull
+        public final CircuitState state;
+        public final int samples;
+        public final double successRate;
+        public final long averageLatencyMillis;
+
+        Health(
+              @NotNull String name, @NotNull CircuitState state, int samples,
+              double successRate, long averageLatencyMillis) {
+            this.name = name;
+            this.state = state;
+            this.samples = samples;
+            this.successRate = successRate;
+            this.averageLatencyMillis = averageLatencyMillis;
+        }
+
+        /**
+         * Higher is healthier. Open circuits always rank last. Half-open circuits rank first, so
+         * the probe that can close them is actually sent; hedging covers it if it is slow. The
+         * rest are ranked by success rate in steps of 10%, so small differences don't keep
+         * reshuffling the chain.
+         */
+        public int score() {
+            if (state == CircuitState.OPEN)
+                return -1;
+            if (state == CircuitState.HALF_OPEN)
+                return 11;
+            return (int) Math.round(successRate * 10);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                  Locale.US, "%s: %s, %.0f%% ok, %d ms avg over %d requests",
+                  name, state, successRate * 100, averageLatencyMillis, samples
+            );
+        }
+    }
+}
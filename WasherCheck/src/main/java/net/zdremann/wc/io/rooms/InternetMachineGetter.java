@@ -31,6 +31,7 @@ import net.zdremann.wc.model.Machine;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 abstract class InternetMachineGetter implements MachineGetter {
     protected final Tracker gaTracker;
@@ -43,10 +44,19 @@ abstract class InternetMachineGetter implements MachineGetter {
 
     @Override
     public List<Machine> getMachines(long roomId) throws IOException {
+        checkConnected();
+        return null;
+    }
+
+    @Override
+    public Map<Long, List<Machine>> getMachines(long... roomIds) throws IOException {
+        return MachineGetters.fanOut(this, roomIds);
+    }
+
+    protected void checkConnected() throws IOException {
         NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
         if(activeNetwork == null || !activeNetwork.isConnected()) {
-            throw new IOException("Not connected to the internet");
+            throw new NotConnectedException();
         }
-        return null;
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent successful requests so percentiles can be read off
+ * them.
+ */
+class LatencyTracker {
+    private static final int WINDOW_SIZE = 50;
+    private static final int MIN_SAMPLES = 10;
+
+    private final long[] mSamples = new long[WINDOW_SIZE];
+    private int mCount = 0;
+    private int mNext = 0;
+
+    public synchronized void record(long latencyMillis) {
+        mSamples[mNext] = latencyMillis;
+        mNext = (mNext + 1) % WINDOW_SIZE;
+        if (mCount < WINDOW_SIZE)
+            mCount++;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the latency below which <code>percentile</code> of the recent samples fall, or
+     * <code>defaultMillis</code> if there are too few samples to say
+     */
+    public long percentile(double percentile, long defaultMillis) {
+        final long[] sorted;
+        synchronized (this) {
+            if (mCount < MIN_SAMPLES)
+                return defaultMillis;
+            sorted = Arrays.copyOf(mSamples, mCount);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -26,7 +26,17 @@ import net.zdremann.wc.model.Machine;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 public interface MachineGetter {
     public List<Machine> getMachines(long roomId) throws IOException;
+
+    /**
+     * Loads several rooms at once, in as few requests as the backend allows.
+     *
+     * @return the machines of each room that could be loaded, keyed by room id. Rooms that
+     * could not be loaded are missing from the result.
+     * @throws IOException if none of the rooms could be loaded
+     */
+    public Map<Long, List<Machine>> getMachines(long... roomIds) throws IOException;
 }
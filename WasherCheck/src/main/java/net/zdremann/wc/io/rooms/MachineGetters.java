@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.model.Room;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class MachineGetters {
+    private MachineGetters() {
+    }
+
+    /**
+     * Copies a room's machines, keeping a {@link Room} packed rather than creating a
+     * {@link Machine} for every row.
+     */
+    @NotNull
+    static List<Machine> copy(@NotNull List<Machine> machines) {
+        if (machines instanceof Room)
+            return new Room((Room) machines);
+        return new ArrayList<Machine>(machines);
+    }
+
+    /**
+     * Implements {@link MachineGetter#getMachines(long...)} for getters that can only load one
+     * room per request, by loading each room in turn.
+     */
+    @NotNull
+    static Map<Long, List<Machine>> fanOut(
+          @NotNull MachineGetter getter, @NotNull long... roomIds) throws IOException {
+        final Map<Long, List<Machine>> result = new HashMap<Long, List<Machine>>(roomIds.length);
+        IOException lastException = null;
+        for (long roomId : roomIds) {
+            if (result.containsKey(roomId))
+                continue;
+            try {
+                result.put(roomId, getter.getMachines(roomId));
+            } catch (IOException e) {
+                lastException = e;
+            }
+        }
+
+        if (result.isEmpty() && lastException != null)
+            throw lastException;
+        return result;
+    }
+}
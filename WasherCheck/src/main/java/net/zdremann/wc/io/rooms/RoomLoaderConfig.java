@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import android.os.Process;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How rooms are loaded, shared by the debug and release <code>RoomLoaderModule</code>s.
+ */
+final class RoomLoaderConfig {
+    static final long DEFAULT_HEDGE_DELAY_MILLIS = 2000;
+    static final long CACHE_TTL_MILLIS = 30 * 1000;
+    static final long CACHE_STALE_MILLIS = 2 * 60 * 1000;
+    static final int CACHE_MAX_ROOMS = 32;
+    /**
+     * Threads for hedged requests and background reloads together. A request that was cancelled
+     * keeps its thread until its connection times out, so this bounds how many can pile up.
+     */
+    static final int MAX_THREADS = 4;
+    static final int MAX_QUEUED = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private RoomLoaderConfig() {
+    }
+
+    /**
+     * @return the executor that hedged requests and background reloads run on. Work beyond
+     * {@link #MAX_QUEUED} waiting tasks is rejected.
+     */
+    @NotNull
+    static ExecutorService newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+              MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(
+                      new Runnable() {
+                          @Override
+                          public void run() {
+                              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                              r.run();
+                          }
+                      }, "RoomLoader #" + mCount.getAndIncrement()
+                );
+            }
+        }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
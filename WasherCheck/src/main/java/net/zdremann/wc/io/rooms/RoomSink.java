@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.model.Room;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Adds the machines read by the core parsers to a {@link Room}
+ */
+final class RoomSink implements MachineSink {
+    @NotNull
+    private final Room mRoom;
+
+    RoomSink(@NotNull Room room) {
+        mRoom = room;
+    }
+
+    @Override
+    public void add(int type, int number, long esudsId, int status, long timeRemaining) {
+        mRoom.add(type(type), number, esudsId, status(status), timeRemaining);
+    }
+
+    @NotNull
+    private static Machine.Type type(int type) {
+        switch (type) {
+        case TYPE_WASHER:
+            return Machine.Type.WASHER;
+        case TYPE_DRYER:
+            return Machine.Type.DRYER;
+        default:
+            return Machine.Type.UNKNOWN;
+        }
+    }
+
+    @NotNull
+    private static Machine.Status status(int status) {
+        switch (status) {
+        case STATUS_AVAILABLE:
+            return Machine.Status.AVAILABLE;
+        case STATUS_CYCLE_COMPLETE:
+            return Machine.Status.CYCLE_COMPLETE;
+        case STATUS_IN_USE:
+            return Machine.Status.IN_USE;
+        case STATUS_UNAVAILABLE:
+            return Machine.Status.UNAVAILABLE;
+        default:
+            return Machine.Status.UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import android.os.SystemClock;
+
+import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.model.Room;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the <code>ETag</code>/<code>Last-Modified</code> validators of the last good
+ * response for each room, along with the machines parsed from it, so a poll answered with
+ * <code>304 Not Modified</code> needs neither a download nor a parse.
+ * <p>
+ * Each {@link MachineGetter} keeps its own cache, as validators from one backend mean nothing
+ * to another.
+ */
+class RoomValidatorCache {
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * The least recently used room is dropped beyond {@link RoomLoaderConfig#CACHE_MAX_ROOMS}
+     */
+    private final Map<Long, Entry> mEntries =
+          new LinkedHashMap<Long, Entry>(RoomLoaderConfig.CACHE_MAX_ROOMS + 1, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                  return size() > RoomLoaderConfig.CACHE_MAX_ROOMS;
+              }
+          };
+
+    /**
+     * Adds conditional headers for <code>roomId</code> to a connection that has not been
+     * connected yet.
+     */
+    public synchronized void addValidators(long roomId, @NotNull HttpURLConnection connection) {
+        final Entry entry = mEntries.get(roomId);
+        if (entry == null)
+            return;
+
+        if (entry.eTag != null)
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, entry.eTag);
+        if (entry.lastModified != null)
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, entry.lastModified);
+    }
+
+    /**
+     * @return a copy of the machines from the last good response if the server answered
+     * <code>304 Not Modified</code>, otherwise null. A {@link Room} is marked as loaded now, since
+     * the server just confirmed it. The connection has no body then, so it is disconnected.
+     */
+    @Nullable
+    public List<Machine> getIfNotModified(
+          long roomId, @NotNull HttpURLConnection connection) throws IOException {
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_NOT_MODIFIED)
+            return null;
+        connection.disconnect();
+
+        final Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(roomId);
+        }
+        if (entry == null)
+            throw new IOException("Not modified, but nothing cached for room " + roomId);
+
+        final List<Machine> machines = MachineGetters.copy(entry.machines);
+        if (machines instanceof Room)
+            ((Room) machines).setTimeLoaded(SystemClock.elapsedRealtime());
+        return machines;
+    }
+
+    /**
+     * Remembers the validators of a good response, along with what was parsed from it.
+     */
+    public synchronized void put(
+          long roomId, @NotNull HttpURLConnection connection, @NotNull List<Machine> machines) {
+        final String eTag = connection.getHeaderField(HEADER_ETAG);
+        final String lastModified = connection.getHeaderField(HEADER_LAST_MODIFIED);
+
+        if (eTag == null && lastModified == null)
+            mEntries.remove(roomId);
+        else
+            mEntries.put(roomId, new Entry(eTag, lastModified, MachineGetters.copy(machines)));
+    }
+
+    private static class Entry {
+        @Nullable
+        final String eTag;
+        @Nullable
+        final String lastModified;
+        @NotNull
+        final List<Machine> machines;
+
+        Entry(
+              @Nullable String eTag, @Nullable String lastModified,
+              @NotNull List<Machine> machines) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.machines = machines;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import net.zdremann.wc.model.Machine;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Loading a room failed, but an older result for it is still known. Callers that would rather
+ * show old data than nothing can use {@link #getMachines()}; to everyone else it is a failure
+ * like any other.
+ */
+public class StaleMachinesException extends IOException {
+    @NotNull
+    private final List<Machine> mMachines;
+    private final long mLoadedAt;
+
+    public StaleMachinesException(
+          @NotNull List<Machine> machines, long loadedAt, @NotNull IOException cause) {
+        super("Loading failed, only an older result is known", cause);
+        mMachines = machines;
+        mLoadedAt = loadedAt;
+    }
+
+    /**
+     * @return the last good result for the room
+     */
+    @NotNull
+    public List<Machine> getMachines() {
+        return mMachines;
+    }
+
+    /**
+     * @return when the last good result was loaded, by SystemClock.elapsedRealtime()
+     */
+    public long getLoadedAt() {
+        return mLoadedAt;
+    }
+}
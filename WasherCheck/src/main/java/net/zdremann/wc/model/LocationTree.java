@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.model;
+
+import android.os.Parcel;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The whole location hierarchy, stored as parallel arrays indexed by node.
+ * <p>
+ * Nodes are stored breadth first, so the root is node 0 and each node's children are the
+ * contiguous range <code>[firstChild, firstChild + childCount)</code>. Colors are resolved
+ * against the parents when the tree is built, and names are interned, so nothing here needs to
+ * walk the tree. {@link MachineGrouping}s are created on demand as views over a node.
+ */
+public final class LocationTree {
+    public static final int NO_PARENT = -1;
+
+    private final long[] mIds;
+    private final String[] mNames;
+    private final byte[] mTypes;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final int[] mParents;
+    private final int[] mFirstChildren;
+    private final int[] mChildCounts;
+    private final int[] mColors;
+    private final boolean[] mHasColor;
+
+    /**
+     * Open addressed from id to node index + 1, with 0 marking an empty slot
+     */
+    private final int[] mIdSlots;
+    private final AtomicReferenceArray<MachineGrouping> mGroupings;
+
+    private LocationTree(int size) {
+        mIds = new long[size];
+        mNames = new String[size];
+        mTypes = new byte[size];
+        mLatitudes = new double[size];
+        mLongitudes = new double[size];
+        mParents = new int[size];
+        mFirstChildren = new int[size];
+        mChildCounts = new int[size];
+        mColors = new int[size];
+        mHasColor = new boolean[size];
+        mIdSlots = new int[Integer.highestOneBit(Math.max(size, 1)) << 2];
+        mGroupings = new AtomicReferenceArray<MachineGrouping>(size);
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    @NotNull
+    public MachineGrouping getRoot() {
+        return grouping(0);
+    }
+
+    /**
+     * @return the view of the node at <code>index</code>. Views are cached, and every thread
+     * gets the same one, even if several race to create it.
+     */
+    @NotNull
+    public MachineGrouping grouping(int index) {
+        final MachineGrouping cached = mGroupings.get(index);
+        if (cached != null)
+            return cached;
+        final MachineGrouping created = new MachineGrouping(this, index);
+        return mGroupings.compareAndSet(index, null, created) ? created : mGroupings.get(index);
+    }
+
+    /**
+     * @return the index of the node with the given id, or -1 if there is none
+     */
+    public int indexOf(long id) {
+        final int mask = mIdSlots.length - 1;
+        for (int slot = hash(id) & mask; mIdSlots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = mIdSlots[slot] - 1;
+            if (mIds[index] == id)
+                return index;
+        }
+        return -1;
+    }
+
+    @Nullable
+    public MachineGrouping findGrouping(long id) {
+        final int index = indexOf(id);
+        return index == -1 ? null : grouping(index);
+    }
+
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    @NotNull
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    @NotNull
+    public MachineGrouping.Type getType(int index) {
+        return MachineGrouping.Type.ofInt(mTypes[index]);
+    }
+
+    public double getLatitude(int index) {
+        return mLatitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return mLongitudes[index];
+    }
+
+    /**
+     * @return the index of the parent node, or {@link #NO_PARENT} for the root
+     */
+    public int getParent(int index) {
+        return mParents[index];
+    }
+
+    public int getFirstChild(int index) {
+        return mFirstChildren[index];
+    }
+
+    public int getChildCount(int index) {
+        return mChildCounts[index];
+    }
+
+    public boolean hasColor(int index) {
+        return mHasColor[index];
+    }
+
+    /**
+     * @return the color of the node, or of its closest ancestor that has one. Only meaningful
+     * if {@link #hasColor(int)}.
+     */
+    public int getColor(int index) {
+        return mColors[index];
+    }
+
+    /**
+     * Writes the subtree under <code>index</code>, which {@link #readFromParcel(Parcel)} reads
+     * back as a tree of its own. Colors stay resolved against the original parents.
+     */
+    public void writeToParcel(@NotNull Parcel destination, int index) {
+        final int end = subtreeSize(index);
+        final int[] nodes = new int[end];
+        nodes[0] = index;
+        for (int read = 0, write = 1; read < end; read++) {
+            final int first = mFirstChildren[nodes[read]];
+            for (int child = first; child < first + mChildCounts[nodes[read]]; child++) {
+                nodes[write++] = child;
+            }
+        }
+
+        destination.writeInt(end);
+        for (int node : nodes) {
+            destination.writeLong(mIds[node]);
+            destination.writeString(mNames[node]);
+            destination.writeInt(mTypes[node]);
+            destination.writeDouble(mLatitudes[node]);
+            destination.writeDouble(mLongitudes[node]);
+            destination.writeInt(mChildCounts[node]);
+            destination.writeInt(mHasColor[node] ? 1 : 0);
+            destination.writeInt(mColors[node]);
+        }
+    }
+
+    @NotNull
+    public static LocationTree readFromParcel(@NotNull Parcel in) {
+        final int size = in.readInt();
+        final LocationTree tree = new LocationTree(size);
+        int nextChild = 1;
+        for (int i = 0; i < size; i++) {
+            tree.mIds[i] = in.readLong();
+            tree.mNames[i] = in.readString();
+            tree.mTypes[i] = (byte) in.readInt();
+            tree.mLatitudes[i] = in.readDouble();
+            tree.mLongitudes[i] = in.readDouble();
+            tree.mChildCounts[i] = in.readInt();
+            tree.mHasColor[i] = in.readInt() != 0;
+            tree.mColors[i] = in.readInt();
+            tree.mFirstChildren[i] = nextChild;
+            nextChild += tree.mChildCounts[i];
+        }
+        tree.link();
+        return tree;
+    }
+
+    private int subtreeSize(int index) {
+        int size = 1;
+        final int first = mFirstChildren[index];
+        for (int child = first; child < first + mChildCounts[index]; child++) {
+            size += subtreeSize(child);
+        }
+        return size;
+    }
+
+    /**
+     * Fills in the parents and the id table from the child ranges
+     */
+    private void link() {
+        if (mParents.length > 0)
+            mParents[0] = NO_PARENT;
+        final int mask = mIdSlots.length - 1;
+        for (int i = 0; i < mIds.length; i++) {
+            final int first = mFirstChildren[i];
+            for (int child = first; child < first + mChildCounts[i]; child++) {
+                mParents[child] = i;
+            }
+
+            int slot = hash(mIds[i]) & mask;
+            while (mIdSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mIdSlots[slot] = i + 1;
+        }
+    }
+
+    private static int hash(long id) {
+        final int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Collects nodes in any order, as long as each parent is added before its children, and
+     * lays them out breadth first.
+     */
+    public static final class Builder {
+        private final List<Node> mNodes = new ArrayList<Node>();
+        private final Map<String, String> mNames = new HashMap<String, String>();
+
+        /**
+         * @param parent the index returned when the parent was added, or {@link #NO_PARENT}
+         *               for the root, which must be added first
+         * @return the index of the new node, for use as a parent
+         */
+        public int add(
+              int parent, long id, @NotNull String name, @NotNull MachineGrouping.Type type,
+              double latitude, double longitude, @Nullable Integer color) {
+            if ((parent == NO_PARENT) != mNodes.isEmpty())
+                throw new IllegalArgumentException(
+                      "The root must be the first and only node without a parent"
+                );
+            if (parent >= mNodes.size())
+                throw new IllegalArgumentException("Parent " + parent + " has not been added");
+
+            String interned = mNames.get(name);
+            if (interned == null) {
+                interned = name;
+                mNames.put(name, name);
+            }
+
+            final Node node = new Node(id, interned, type, latitude, longitude, color);
+            if (parent != NO_PARENT)
+                mNodes.get(parent).children.add(node);
+            mNodes.add(node);
+            return mNodes.size() - 1;
+        }
+
+        @NotNull
+        public LocationTree build() {
+            if (mNodes.isEmpty())
+                throw new IllegalStateException("A location tree needs a root");
+
+            final LocationTree tree = new LocationTree(mNodes.size());
+            final Node[] order = new Node[mNodes.size()];
+            order[0] = mNodes.get(0);
+            int write = 1;
+            for (int i = 0; i < order.length; i++) {
+                final Node node = order[i];
+                tree.mIds[i] = node.id;
+                tree.mNames[i] = node.name;
+                tree.mTypes[i] = (byte) node.type.ordinal();
+                tree.mLatitudes[i] = node.latitude;
+                tree.mLongitudes[i] = node.longitude;
+                tree.mFirstChildren[i] = write;
+                tree.mChildCounts[i] = node.children.size();
+                for (Node child : node.children) {
+                    order[write++] = child;
+                }
+            }
+            tree.link();
+
+            // Parents come before their children, so theirs is already resolved
+            for (int i = 0; i < order.length; i++) {
+                final Integer color = order[i].color;
+                final int parent = tree.mParents[i];
+                if (color != null) {
+                    tree.mHasColor[i] = true;
+                    tree.mColors[i] = color;
+                } else if (parent != NO_PARENT) {
+                    tree.mHasColor[i] = tree.mHasColor[parent];
+                    tree.mColors[i] = tree.mColors[parent];
+                }
+            }
+            return tree;
+        }
+
+        private static final class Node {
+            final long id;
+            final String name;
+            final MachineGrouping.Type type;
+            final double latitude;
+            final double longitude;
+            final Integer color;
+            final List<Node> children = new ArrayList<Node>();
+
+            Node(long id, String name, MachineGrouping.Type type, double latitude,
+                 double longitude, Integer color) {
+                this.id = id;
+                this.name = name;
+                this.type = type;
+                this.latitude = latitude;
+                this.longitude = longitude;
+                this.color = color;
+            }
+        }
+    }
+}
@@ -32,29 +32,21 @@ import android.os.Parcelable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 
 import air.air.net.zdremann.zsuds.R;
 
-import static net.zdremann.wc.model.MachineGroupingBuilder.LOCATION_PROVIDER;
-
+/**
+ * A view of one node of a {@link LocationTree}. Everything past the id, name and type is read
+ * from the tree when asked for.
+ */
 public class MachineGrouping implements Parcelable, Comparable<MachineGrouping> {
+    static final String LOCATION_PROVIDER = "static";
+
     public static final Creator<MachineGrouping> CREATOR = new Creator<MachineGrouping>() {
         public MachineGrouping createFromParcel(Parcel in) {
-            Location loc = new Location(LOCATION_PROVIDER);
-            MachineGrouping value = new MachineGrouping(
-                  in.readLong(), in.readString(), Type.ofInt(in.readInt()), loc,
-                  (Integer)in.readValue(ClassLoader.getSystemClassLoader())
-            );
-            loc.setLatitude(in.readDouble());
-            loc.setLongitude(in.readDouble());
-
-            in.readTypedList(value.children, CREATOR);
-            for (MachineGrouping child : value.children) {
-                child.parent = value;
-            }
-            return value;
+            return LocationTree.readFromParcel(in).getRoot();
         }
 
         public MachineGrouping[] newArray(int size) {
@@ -68,24 +60,72 @@ public class MachineGrouping implements Parcelable, Comparable<MachineGrouping>
     @NotNull
     public final Type type;
     @NotNull
-    public final List<MachineGrouping> children = new ArrayList<MachineGrouping>();
+    private final LocationTree mTree;
+    private final int mIndex;
+
+    MachineGrouping(@NotNull LocationTree tree, int index) {
+        this.id = tree.getId(index);
+        this.name = tree.getName(index);
+        this.type = tree.getType(index);
+        mTree = tree;
+        mIndex = index;
+    }
+
     @NotNull
-    public final Location location;
-    @Nullable
-    public MachineGrouping parent;
+    public LocationTree getTree() {
+        return mTree;
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
     @Nullable
-    public Integer color;
+    public MachineGrouping getParent() {
+        final int parent = mTree.getParent(mIndex);
+        return parent == LocationTree.NO_PARENT ? null : mTree.grouping(parent);
+    }
 
-    public MachineGrouping(
-          final long id,
-          @NotNull final String name,
-          @NotNull final Type type,
-          @NotNull final Location location, @Nullable final Integer color) {
-        this.id = id;
-        this.name = name;
-        this.type = type;
-        this.location = location;
-        this.color = color;
+    @NotNull
+    public List<MachineGrouping> getChildren() {
+        final int first = mTree.getFirstChild(mIndex);
+        final int count = mTree.getChildCount(mIndex);
+        return new AbstractList<MachineGrouping>() {
+            @Override
+            public MachineGrouping get(int location) {
+                if (location < 0 || location >= count)
+                    throw new IndexOutOfBoundsException("Invalid index " + location);
+                return mTree.grouping(first + location);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    public double getLatitude() {
+        return mTree.getLatitude(mIndex);
+    }
+
+    public double getLongitude() {
+        return mTree.getLongitude(mIndex);
+    }
+
+    public boolean hasLocation() {
+        return !Double.isNaN(getLatitude()) && !Double.isNaN(getLongitude());
+    }
+
+    /**
+     * @return a new {@link Location} at this grouping's coordinates
+     */
+    @NotNull
+    public Location getLocation() {
+        final Location location = new Location(LOCATION_PROVIDER);
+        location.setLatitude(getLatitude());
+        location.setLongitude(getLongitude());
+        return location;
     }
 
     @Override
@@ -106,7 +146,6 @@ public class MachineGrouping implements Parcelable, Comparable<MachineGrouping>
 
         result = 31 * result + type.hashCode();
         result = 31 * result + name.hashCode();
-        result = 31 * result + location.hashCode();
 
         return result;
     }
@@ -117,7 +156,8 @@ public class MachineGrouping implements Parcelable, Comparable<MachineGrouping>
               "id=" + id +
               ", type=" + type +
               ", name='" + name + '\'' +
-              ", location=" + location +
+              ", latitude=" + getLatitude() +
+              ", longitude=" + getLongitude() +
               '}';
     }
 
@@ -131,33 +171,23 @@ public class MachineGrouping implements Parcelable, Comparable<MachineGrouping>
     }
 
     public void writeToParcel(@NotNull Parcel destination, int flags) {
-        destination.writeLong(id);
-        destination.writeString(name);
-        destination.writeInt(type.ordinal());
-        destination.writeDouble(location.getLatitude());
-        destination.writeDouble(location.getLongitude());
-        destination.writeValue(getColor());
-        destination.writeTypedList(children);
+        mTree.writeToParcel(destination, mIndex);
     }
 
+    /**
+     * @return this grouping's color, or the closest ancestor's
+     */
     @Nullable
     public Integer getColor() {
-        MachineGrouping current = this;
-        while(current != null) {
-            if(current.color != null)
-                return current.color;
-            current = current.parent;
-        }
-        return null;
+        return mTree.hasColor(mIndex) ? mTree.getColor(mIndex) : null;
     }
 
     @NotNull
     public Drawable getColorDrawable(Context context) {
-        Integer color = getColor();
-        if(color == null)
+        if (!mTree.hasColor(mIndex))
             return new ColorDrawable(context.getResources().getColor(R.color.actionbar_default));
         else
-            return new ColorDrawable(color);
+            return new ColorDrawable(mTree.getColor(mIndex));
     }
 
     public static enum Type {
@@ -167,8 +197,10 @@ public class MachineGrouping implements Parcelable, Comparable<MachineGrouping>
         HALL,
         ROOM;
 
+        private static final Type[] VALUES = values();
+
         public static Type ofInt(int i) {
-            return values()[i];
+            return VALUES[i];
         }
     }
 }
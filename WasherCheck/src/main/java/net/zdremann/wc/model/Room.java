@@ -24,35 +24,57 @@ package net.zdremann.wc.model;
 
 import android.os.SystemClock;
 
+import net.zdremann.wc.model.Machine.Status;
 import net.zdremann.wc.model.Machine.Type;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.AbstractCollection;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.EnumMap;
 import java.util.EnumSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
-public class Room extends AbstractCollection<Machine> {
-    protected final List<Machine> washers = new ArrayList<Machine>();
-    protected final List<Machine> dryers = new ArrayList<Machine>();
-    protected final List<Machine> others = new ArrayList<Machine>();
-    protected final Map<Machine.Type, List<Machine>> machineMap;
+/**
+ * The machines of one room, stored as parallel primitive arrays per machine type and kept sorted
+ * by number as they are added.
+ * <p>
+ * Parsers fill a room through {@link #add(Type, int, long, Status, long)}, so no {@link Machine}
+ * is created per row. Machines are only created when read through the {@link List} interface.
+ * Iteration goes through the washers, then the dryers, then the others.
+ * <p>
+ * Every read and write holds the room's lock, including reads through the per-type lists, so a
+ * room may be read from any thread while it is being filled.
+ */
+public class Room extends AbstractList<Machine> {
+    private static final Type[] TYPES = Type.values();
+    private static final Status[] STATUSES = Status.values();
+
+    private final Machines[] mMachines = new Machines[TYPES.length];
+    private int mSize;
+    @Nullable
+    private Set<Type> mTypes;
+
+    /**
+     * Sorted esuds ids, with the type and position of each machine packed alongside. Built when
+     * first needed, and dropped on every add.
+     */
+    @Nullable
+    private long[] mEsudsIds;
+    @Nullable
+    private int[] mEsudsSlots;
+
     public final long id;
 
-    public long getTimeLoaded() {
+    public synchronized long getTimeLoaded() {
         return timeLoaded;
     }
 
-    public void setTimeLoaded(final long timeLoaded) {
+    public synchronized void setTimeLoaded(final long timeLoaded) {
         this.timeLoaded = timeLoaded;
     }
 
@@ -65,27 +87,55 @@ public class Room extends AbstractCollection<Machine> {
         this.id = id;
         timeLoaded = SystemClock.elapsedRealtime();
 
-        EnumMap<Type, List<Machine>> tmpMap = new EnumMap<Type, List<Machine>>(Type.class);
-        tmpMap.put(Type.WASHER, washers);
-        tmpMap.put(Type.DRYER, dryers);
-        tmpMap.put(Type.UNKNOWN, others);
-        machineMap = tmpMap;
+        for (int i = 0; i < TYPES.length; i++) {
+            mMachines[i] = new Machines(TYPES[i]);
+        }
     }
 
-    @Nullable
-    public Machine getMachine(@NotNull final Machine.Type type, final int number) {
-        final List<Machine> typedMachines = get(type);
-
-        if (typedMachines.isEmpty()) {
-            return null;
+    /**
+     * Copies the machines' arrays, rather than the machines
+     */
+    public Room(@NotNull final Room other) {
+        this.id = other.id;
+        synchronized (other) {
+            timeLoaded = other.timeLoaded;
+            mSize = other.mSize;
+            for (int i = 0; i < TYPES.length; i++) {
+                mMachines[i] = new Machines(other.mMachines[i]);
+            }
         }
+    }
 
-        for (final Machine machine : typedMachines) {
-            if (machine.getNum() == number)
-                return machine;
-        }
+    /**
+     * Adds a machine without creating a {@link Machine} for it. Machines with the same number
+     * are kept in the order they were added.
+     */
+    public synchronized void add(
+          @NotNull final Type type, final int number, final long esudsId,
+          @NotNull final Status status, final long timeRemaining) {
+        mMachines[type.ordinal()].insert(number, esudsId, status, timeRemaining);
+        mSize++;
+        mTypes = null;
+        mEsudsIds = null;
+        mEsudsSlots = null;
+    }
 
-        return null;
+    @Nullable
+    public synchronized Machine getMachine(@NotNull final Machine.Type type, final int number) {
+        final Machines machines = mMachines[type.ordinal()];
+        final int index = machines.indexOf(number);
+        return index < 0 ? null : machines.get(index);
+    }
+
+    @Nullable
+    public synchronized Machine getMachineByEsudsId(final long esudsId) {
+        if (mEsudsIds == null)
+            indexEsudsIds();
+        final int index = Arrays.binarySearch(mEsudsIds, esudsId);
+        if (index < 0)
+            return null;
+        final int slot = mEsudsSlots[index];
+        return mMachines[slot >>> 24].get(slot & 0xffffff);
     }
 
     @NotNull
@@ -93,58 +143,75 @@ public class Room extends AbstractCollection<Machine> {
         if (type == null)
             return Collections.emptyList();
         else
-            return machineMap.get(type);
+            return mMachines[type.ordinal()];
     }
 
     @NotNull
     public List<Machine> getWashers() {
-        return washers;
+        return mMachines[Type.WASHER.ordinal()];
     }
 
     @NotNull
     public List<Machine> getDryers() {
-        return dryers;
+        return mMachines[Type.DRYER.ordinal()];
     }
 
     @NotNull
     public List<Machine> getOthers() {
-        return others;
+        return mMachines[Type.UNKNOWN.ordinal()];
+    }
+
+    /**
+     * @return the number of machines of the given type
+     */
+    public synchronized int count(@NotNull final Machine.Type type) {
+        return mMachines[type.ordinal()].mCount;
+    }
+
+    public synchronized int getNumber(@NotNull final Machine.Type type, final int index) {
+        return mMachines[type.ordinal()].checked(index).mNumbers[index];
+    }
+
+    public synchronized long getEsudsId(@NotNull final Machine.Type type, final int index) {
+        return mMachines[type.ordinal()].checked(index).mEsudsIds[index];
     }
 
     @NotNull
-    public Set<Machine.Type> getTypes() {
-        // TODO: Cache types, set a dirty flag on insert/remove
-        Type[] allTypes = Type.values();
-        EnumSet<Machine.Type> result = EnumSet.noneOf(Machine.Type.class);
-
-        for (Type type : allTypes) {
-            if (has(type))
-                result.add(type);
-        }
+    public synchronized Status getStatus(@NotNull final Machine.Type type, final int index) {
+        return STATUSES[mMachines[type.ordinal()].checked(index).mStatuses[index]];
+    }
 
-        return result;
+    public synchronized long getTimeRemaining(@NotNull final Machine.Type type, final int index) {
+        return mMachines[type.ordinal()].checked(index).mTimesRemaining[index];
     }
 
-    public boolean has(final Machine.Type type) {
-        return get(type).size() > 0;
+    @NotNull
+    public synchronized Set<Machine.Type> getTypes() {
+        if (mTypes == null) {
+            final EnumSet<Machine.Type> result = EnumSet.noneOf(Machine.Type.class);
+            for (Type type : TYPES) {
+                if (has(type))
+                    result.add(type);
+            }
+            mTypes = Collections.unmodifiableSet(result);
+        }
+        return mTypes;
+    }
+
+    public synchronized boolean has(final Machine.Type type) {
+        return mMachines[type.ordinal()].mCount > 0;
     }
 
     public boolean hasWashers() {
-        return washers.size() > 0;
+        return has(Type.WASHER);
     }
 
     public boolean hasDryers() {
-        return dryers.size() > 0;
+        return has(Type.DRYER);
     }
 
     public boolean hasOthers() {
-        return others.size() > 0;
-    }
-
-    public synchronized void sort() {
-        for (List<Machine> l : machineMap.values()) {
-            Collections.sort(l);
-        }
+        return has(Type.UNKNOWN);
     }
 
     @Override
@@ -152,8 +219,11 @@ public class Room extends AbstractCollection<Machine> {
         if (machine == null)
             return false;
 
-        List<Machine> machines = get(machine.getType());
-        return machines.add(machine);
+        add(
+              machine.getType(), machine.getNum(), machine.getEsudsId(), machine.getStatus(),
+              machine.getTimeRemaining()
+        );
+        return true;
     }
 
     @Override
@@ -166,55 +236,157 @@ public class Room extends AbstractCollection<Machine> {
     }
 
     @Override
-    public boolean isEmpty() {
-        for (Type type : getTypes()) {
-            if (!get(type).isEmpty()) {
-                return false;
-            }
+    public synchronized Machine get(final int location) {
+        if (location < 0 || location >= mSize)
+            throw new IndexOutOfBoundsException("Invalid index " + location + ", size " + mSize);
+        int index = location;
+        for (Machines machines : mMachines) {
+            if (index < machines.mCount)
+                return machines.get(index);
+            index -= machines.mCount;
         }
-        return true;
+        throw new IllegalStateException();
     }
 
-    @NotNull
     @Override
-    public Iterator<Machine> iterator() {
-        return new RoomMachineIterator();
+    public synchronized boolean isEmpty() {
+        return mSize == 0;
     }
 
     @Override
-    public int size() {
-        int size = 0;
-        for (Machine.Type type : getTypes()) {
-            size += get(type).size();
-        }
-        return size;
+    public synchronized int size() {
+        return mSize;
     }
 
-    private class RoomMachineIterator implements Iterator<Machine> {
-        int enumIndex = 0;
-        Iterator<Machine> innerIterator = get(Machine.Type.fromInt(enumIndex)).iterator();
-
-        public boolean hasNext() {
-            while (!innerIterator.hasNext() && enumIndex + 1 < Machine.Type.values().length) {
-                innerIterator = get(Machine.Type.values()[++enumIndex]).iterator();
+    private void indexEsudsIds() {
+        final long[] keys = new long[mSize];
+        final int[] slots = new int[mSize];
+        int count = 0;
+        for (int type = 0; type < mMachines.length; type++) {
+            final Machines machines = mMachines[type];
+            for (int i = 0; i < machines.mCount; i++) {
+                if (machines.mEsudsIds[i] == Machine.NO_ESUDS_ID)
+                    continue;
+                // Insertion sort, rooms have a few dozen machines at most
+                int at = count++;
+                while (at > 0 && keys[at - 1] > machines.mEsudsIds[i]) {
+                    keys[at] = keys[at - 1];
+                    slots[at] = slots[at - 1];
+                    at--;
+                }
+                keys[at] = machines.mEsudsIds[i];
+                slots[at] = (type << 24) | i;
             }
-            return innerIterator.hasNext();
-        }
-
-        public Machine next() {
-            return innerIterator.next();
-        }
-
-        public void remove() {
-            innerIterator.remove();
         }
+        mEsudsIds = Arrays.copyOf(keys, count);
+        mEsudsSlots = Arrays.copyOf(slots, count);
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return "Room{" +
               "id=" + id +
               ", timeLoaded=" + new Date(timeLoaded).toString() +
               '}';
     }
+
+    /**
+     * The machines of one type, sorted by number
+     */
+    private final class Machines extends AbstractList<Machine> {
+        private static final int INITIAL_CAPACITY = 8;
+
+        @NotNull
+        private final Type mType;
+        private int mCount;
+        private int[] mNumbers;
+        private long[] mEsudsIds;
+        private byte[] mStatuses;
+        private long[] mTimesRemaining;
+
+        Machines(@NotNull Type type) {
+            mType = type;
+            mNumbers = new int[INITIAL_CAPACITY];
+            mEsudsIds = new long[INITIAL_CAPACITY];
+            mStatuses = new byte[INITIAL_CAPACITY];
+            mTimesRemaining = new long[INITIAL_CAPACITY];
+        }
+
+        Machines(@NotNull Machines other) {
+            mType = other.mType;
+            mCount = other.mCount;
+            final int capacity = Math.max(mCount, INITIAL_CAPACITY);
+            mNumbers = Arrays.copyOf(other.mNumbers, capacity);
+            mEsudsIds = Arrays.copyOf(other.mEsudsIds, capacity);
+            mStatuses = Arrays.copyOf(other.mStatuses, capacity);
+            mTimesRemaining = Arrays.copyOf(other.mTimesRemaining, capacity);
+        }
+
+        void insert(int number, long esudsId, @NotNull Status status, long timeRemaining) {
+            if (mCount == mNumbers.length) {
+                final int capacity = mCount * 2;
+                mNumbers = Arrays.copyOf(mNumbers, capacity);
+                mEsudsIds = Arrays.copyOf(mEsudsIds, capacity);
+                mStatuses = Arrays.copyOf(mStatuses, capacity);
+                mTimesRemaining = Arrays.copyOf(mTimesRemaining, capacity);
+            }
+
+            // Rows usually arrive in order, so look from the end
+            int at = mCount;
+            while (at > 0 && mNumbers[at - 1] > number) {
+                at--;
+            }
+            final int moved = mCount - at;
+            System.arraycopy(mNumbers, at, mNumbers, at + 1, moved);
+            System.arraycopy(mEsudsIds, at, mEsudsIds, at + 1, moved);
+            System.arraycopy(mStatuses, at, mStatuses, at + 1, moved);
+            System.arraycopy(mTimesRemaining, at, mTimesRemaining, at + 1, moved);
+
+            mNumbers[at] = number;
+            mEsudsIds[at] = esudsId;
+            mStatuses[at] = (byte) status.ordinal();
+            mTimesRemaining[at] = timeRemaining;
+            mCount++;
+        }
+
+        /**
+         * @return the position of the first machine with this number, or a negative number if
+         * there is none
+         */
+        int indexOf(int number) {
+            final int index = Arrays.binarySearch(mNumbers, 0, mCount, number);
+            if (index < 0)
+                return index;
+            int first = index;
+            while (first > 0 && mNumbers[first - 1] == number) {
+                first--;
+            }
+            return first;
+        }
+
+        @NotNull
+        Machines checked(int index) {
+            if (index < 0 || index >= mCount)
+                throw new IndexOutOfBoundsException("Invalid index " + index + ", size " + mCount);
+            return this;
+        }
+
+        @Override
+        public Machine get(int location) {
+            synchronized (Room.this) {
+                checked(location);
+                return new Machine(
+                      id, mEsudsIds[location], mNumbers[location], mType,
+                      STATUSES[mStatuses[location]], mTimesRemaining[location]
+                );
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (Room.this) {
+                return mCount;
+            }
+        }
+    }
 }
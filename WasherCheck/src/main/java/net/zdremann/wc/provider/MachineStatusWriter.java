@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Parcelable;
+import android.support.v4.util.LongSparseArray;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static net.zdremann.wc.provider.WasherCheckContract.*;
+import static net.zdremann.wc.provider.WasherCheckDatabase.*;
+
+/**
+ * Writes rows of {@link MachineStatus} values into the machine and status_update tables with
+ * precompiled statements. Machine ids are looked up once per room and kept in memory, rather than
+ * queried for every row.
+ * <p>
+ * {@link #replaceRoom(long, Parcelable[])} compares a room against what is stored, and only writes
+ * the machines that changed.
+ * <p>
+ * Must be used from inside a transaction, and closed when done.
+ */
+final class MachineStatusWriter {
+    private static final String SQL_INSERT_MACHINE =
+          "INSERT OR IGNORE INTO " + MachineTable.TABLE_NAME + " (" +
+                MachineColumns.NUMBER + "," + MachineColumns.ESUDS_ID + "," +
+                MachineColumns.ROOM_ID + "," + MachineColumns.MACHINE_TYPE +
+                ") VALUES (?,?,?,?)";
+    private static final String SQL_INSERT_STATUS =
+          "INSERT OR REPLACE INTO " + StatusUpdateTable.TABLE_NAME + " (" +
+                StatusUpdateColumns.LAST_UPDATED + "," + StatusUpdateColumns.STATUS + "," +
+                StatusUpdateColumns.REPORTED_TIME_REMAINING + "," + StatusUpdateColumns.MACHINE_ID +
+                ") VALUES (?,?,?,?)";
+    private static final String SQL_UPDATE_STATUS =
+          "UPDATE " + StatusUpdateTable.TABLE_NAME + " SET " +
+                StatusUpdateColumns.LAST_UPDATED + "=?," + StatusUpdateColumns.STATUS + "=?," +
+                StatusUpdateColumns.REPORTED_TIME_REMAINING + "=?" +
+                " WHERE " + StatusUpdateColumns.MACHINE_ID + "=?";
+    private static final String SQL_QUERY_ROOM =
+          "SELECT m." + MachineColumns._ID + ",m." + MachineColumns.MACHINE_TYPE +
+                ",m." + MachineColumns.NUMBER + ",m." + MachineColumns.ESUDS_ID +
+                ",s." + StatusUpdateColumns._ID + ",s." + StatusUpdateColumns.STATUS +
+                ",s." + StatusUpdateColumns.REPORTED_TIME_REMAINING +
+                " FROM " + MachineTable.TABLE_NAME + " m LEFT JOIN " +
+                StatusUpdateTable.TABLE_NAME + " s ON s." + StatusUpdateColumns.MACHINE_ID +
+                "=m." + MachineColumns._ID +
+                " WHERE m." + MachineColumns.ROOM_ID + "=?";
+
+    @NotNull
+    private final SQLiteDatabase mDb;
+    @NotNull
+    private final SQLiteStatement mInsertMachine;
+    @NotNull
+    private final SQLiteStatement mInsertStatus;
+    @Nullable
+    private SQLiteStatement mUpdateStatus;
+    private final LongSparseArray<LongSparseArray<Long>> mMachineIds =
+          new LongSparseArray<LongSparseArray<Long>>();
+
+    MachineStatusWriter(@NotNull SQLiteDatabase db) {
+        mDb = db;
+        mInsertMachine = db.compileStatement(SQL_INSERT_MACHINE);
+        mInsertStatus = db.compileStatement(SQL_INSERT_STATUS);
+    }
+
+    /**
+     * @param roomId the room to write into, or <code>null</code> to use the room id in
+     *               <code>values</code>
+     * @return the id of the status_update row, or -1 if the machine could not be written,
+     * including when <code>values</code> is missing its room, type, number or status
+     */
+    long write(@NotNull ContentValues values, @Nullable Long roomId) {
+        if (roomId == null)
+            roomId = values.getAsLong(MachineStatusColumns.ROOM_ID);
+        final Integer type = values.getAsInteger(MachineStatusColumns.MACHINE_TYPE);
+        final Integer number = values.getAsInteger(MachineStatusColumns.NUMBER);
+        if (roomId == null || type == null || number == null || !hasStatus(values))
+            return -1;
+        final Long esudsId = values.getAsLong(MachineStatusColumns.ESUDS_ID);
+
+        final long machineId = machineId(roomId, type, number, esudsId);
+        if (machineId == -1)
+            return -1;
+
+        return bindStatus(mInsertStatus, machineId, values).executeInsert();
+    }
+
+    /**
+     * Brings the room's stored machines in line with <code>values</code>. Machines whose status
+     * and time remaining are unchanged are not written at all, and machines missing from
+     * <code>values</code> are deleted.
+     *
+     * @return whether anything in the room changed
+     */
+    boolean replaceRoom(long roomId, @NotNull Parcelable[] values) {
+        final LongSparseArray<StoredMachine> stored = storedMachines(roomId);
+        boolean changed = false;
+
+        for (Parcelable parcelable : values) {
+            final ContentValues cv = (ContentValues) parcelable;
+            final Integer type = cv.getAsInteger(MachineStatusColumns.MACHINE_TYPE);
+            final Integer number = cv.getAsInteger(MachineStatusColumns.NUMBER);
+            if (type == null || number == null)
+                continue;
+            final long key = machineKey(type, number);
+            final StoredMachine machine = stored.get(key);
+            if (machine == null) {
+                changed |= write(cv, roomId) != -1;
+                continue;
+            }
+            stored.remove(key);
+
+            Long esudsId = cv.getAsLong(MachineStatusColumns.ESUDS_ID);
+            if (esudsId != null && esudsId == -1)
+                esudsId = null;
+            if (!equal(machine.esudsId, esudsId)) {
+                final ContentValues update = new ContentValues(1);
+                update.put(MachineColumns.ESUDS_ID, esudsId);
+                mDb.updateWithOnConflict(
+                      MachineTable.TABLE_NAME, update, MachineColumns._ID + "=" + machine.id,
+                      null, SQLiteDatabase.CONFLICT_IGNORE
+                );
+                changed = true;
+            }
+
+            if (!hasStatus(cv))
+                continue;
+            final int status = cv.getAsInteger(MachineStatusColumns.STATUS);
+            final Long timeRemaining = cv.getAsLong(MachineStatusColumns.REPORTED_TIME_REMAINING);
+            if (machine.hasStatus && machine.status == status
+                  && equal(machine.timeRemaining, timeRemaining))
+                continue;
+
+            if (!machine.hasStatus || updateStatus(machine.id, cv) == 0)
+                bindStatus(mInsertStatus, machine.id, cv).executeInsert();
+            changed = true;
+        }
+
+        for (int i = 0; i < stored.size(); i++) {
+            final String machineId = String.valueOf(stored.valueAt(i).id);
+            mDb.delete(
+                  StatusUpdateTable.TABLE_NAME, StatusUpdateColumns.MACHINE_ID + "=?",
+                  new String[]{machineId}
+            );
+            mDb.delete(MachineTable.TABLE_NAME, MachineColumns._ID + "=?", new String[]{machineId});
+            changed = true;
+        }
+        return changed;
+    }
+
+    void close() {
+        mInsertMachine.close();
+        mInsertStatus.close();
+        if (mUpdateStatus != null)
+            mUpdateStatus.close();
+    }
+
+    private int updateStatus(long machineId, @NotNull ContentValues values) {
+        if (mUpdateStatus == null)
+            mUpdateStatus = mDb.compileStatement(SQL_UPDATE_STATUS);
+        return bindStatus(mUpdateStatus, machineId, values).executeUpdateDelete();
+    }
+
+    /**
+     * @return whether <code>values</code> has what a status_update row needs
+     */
+    private static boolean hasStatus(@NotNull ContentValues values) {
+        return values.getAsInteger(MachineStatusColumns.STATUS) != null
+              && values.getAsLong(MachineStatusColumns.LAST_UPDATED) != null;
+    }
+
+    /**
+     * Binds the last updated time, status, time remaining and machine id, in the order both
+     * {@link #SQL_INSERT_STATUS} and {@link #SQL_UPDATE_STATUS} expect.
+     */
+    private static SQLiteStatement bindStatus(
+          @NotNull SQLiteStatement statement, long machineId, @NotNull ContentValues values) {
+        statement.bindLong(1, values.getAsLong(MachineStatusColumns.LAST_UPDATED));
+        statement.bindLong(2, values.getAsInteger(MachineStatusColumns.STATUS));
+        final Long timeRemaining = values.getAsLong(MachineStatusColumns.REPORTED_TIME_REMAINING);
+        if (timeRemaining != null)
+            statement.bindLong(3, timeRemaining);
+        else
+            statement.bindNull(3);
+        statement.bindLong(4, machineId);
+        return statement;
+    }
+
+    private LongSparseArray<StoredMachine> storedMachines(long roomId) {
+        final LongSparseArray<StoredMachine> result = new LongSparseArray<StoredMachine>();
+        final Cursor c = mDb.rawQuery(SQL_QUERY_ROOM, new String[]{Long.toString(roomId)});
+        try {
+            while (c.moveToNext()) {
+                final StoredMachine machine = new StoredMachine();
+                machine.id = c.getLong(0);
+                machine.esudsId = c.isNull(3) ? null : c.getLong(3);
+                machine.hasStatus = !c.isNull(4);
+                machine.status = c.getInt(5);
+                machine.timeRemaining = c.isNull(6) ? null : c.getLong(6);
+                result.put(machineKey(c.getInt(1), c.getInt(2)), machine);
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
+    private static boolean equal(@Nullable Long a, @Nullable Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private long machineId(long roomId, int type, int number, @Nullable Long esudsId) {
+        final LongSparseArray<Long> ids = machineIds(roomId);
+        final long key = machineKey(type, number);
+        final Long known = ids.get(key);
+        if (known != null)
+            return known;
+
+        mInsertMachine.bindLong(1, number);
+        if (esudsId != null && esudsId != -1)
+            mInsertMachine.bindLong(2, esudsId);
+        else
+            mInsertMachine.bindNull(2);
+        mInsertMachine.bindLong(3, roomId);
+        mInsertMachine.bindLong(4, type);
+        final long machineId = mInsertMachine.executeInsert();
+        if (machineId != -1)
+            ids.put(key, machineId);
+        return machineId;
+    }
+
+    private LongSparseArray<Long> machineIds(long roomId) {
+        LongSparseArray<Long> ids = mMachineIds.get(roomId);
+        if (ids != null)
+            return ids;
+
+        ids = new LongSparseArray<Long>();
+        final Cursor c = mDb.query(
+              MachineTable.TABLE_NAME,
+              new String[]{MachineColumns._ID, MachineColumns.MACHINE_TYPE, MachineColumns.NUMBER},
+              MachineColumns.ROOM_ID + "=?", new String[]{Long.toString(roomId)},
+              null, null, null
+        );
+        try {
+            while (c.moveToNext()) {
+                ids.put(machineKey(c.getInt(1), c.getInt(2)), c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        mMachineIds.put(roomId, ids);
+        return ids;
+    }
+
+    private static long machineKey(int type, int number) {
+        return ((long) type << 32) | (number & 0xffffffffL);
+    }
+
+    private static final class StoredMachine {
+        long id;
+        @Nullable
+        Long esudsId;
+        boolean hasStatus;
+        int status;
+        @Nullable
+        Long timeRemaining;
+    }
+}
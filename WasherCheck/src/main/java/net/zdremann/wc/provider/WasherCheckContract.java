@@ -22,7 +22,10 @@
 
 package net.zdremann.wc.provider;
 
+import android.content.ContentResolver;
+import android.content.ContentValues;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
 @SuppressWarnings("UnusedDeclaration")
@@ -130,12 +133,57 @@ public class WasherCheckContract {
             return CONTENT_URI.buildUpon().appendPath("room").appendPath(String.valueOf(roomId))
                   .build();
         }
+
+        /**
+         * Provider method that replaces every machine and status in the room given as the
+         * argument with the {@link #EXTRA_VALUES} in one transaction, notifying
+         * {@link #fromRoomId(long)} once.
+         */
+        public static final String METHOD_REPLACE_ROOM = "replace_room";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_CHANGED = "changed";
+
+        /**
+         * @return whether any machine in the room changed
+         */
+        public static boolean replaceRoom(
+              ContentResolver resolver, long roomId, ContentValues[] values) {
+            final Bundle extras = new Bundle();
+            extras.putParcelableArray(EXTRA_VALUES, values);
+            final Bundle result =
+                  resolver.call(CONTENT_URI, METHOD_REPLACE_ROOM, String.valueOf(roomId), extras);
+            return result != null && result.getBoolean(EXTRA_CHANGED);
+        }
     }
 
     public static interface MachineStatusColumns extends MachineColumns, StatusUpdateColumns {
 
     }
 
+    public static final class RoomRefresh implements RoomRefreshColumns {
+        private RoomRefresh() {
+        }
+
+        public static final String PATH = "room_refresh";
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.net.zdremann.wc.provider.room_refresh";
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.net.zdremann.wc.provider.room_refresh";
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, PATH);
+
+        public static final String[] ALL_COLUMNS = {ROOM_ID, LAST_CHECKED};
+
+        public static Uri fromRoomId(long roomId) {
+            return Uri.withAppendedPath(CONTENT_URI, String.valueOf(roomId));
+        }
+    }
+
+    public static interface RoomRefreshColumns extends RoomReference {
+        /**
+         * When the room was last downloaded, whether or not anything in it changed.
+         * <p>TYPE: INTEGER</p>
+         */
+        public static final String LAST_CHECKED = "last_checked";
+    }
+
     static interface RoomReference {
         public static final String ROOM_ID = "room_id";
     }
@@ -29,7 +29,7 @@ import android.database.sqlite.SQLiteStatement;
 
 import net.zdremann.ForApplication;
 import net.zdremann.wc.io.locations.LocationsProxy;
-import net.zdremann.wc.model.MachineGrouping;
+import net.zdremann.wc.model.LocationTree;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -37,7 +37,11 @@ import javax.inject.Inject;
 
 public class WasherCheckDatabase extends SQLiteOpenHelper {
     private static final String DB_NAME = "WasherCheckDatabase.db";
-    private static final int DB_VERSION = 5;
+    private static final int DB_VERSION = 7;
+    /**
+     * Tables holding downloaded data are only dropped when upgrading from before this version.
+     */
+    private static final int LAST_DESTRUCTIVE_VERSION = 5;
     private final LocationsProxy mLocations;
 
     @Inject
@@ -53,6 +57,7 @@ public class WasherCheckDatabase extends SQLiteOpenHelper {
         MachineStatusView.onCreate(db);
         MachineGroupTable.onCreate(db, mLocations);
         CompletedMachineNotificationTable.onCreate(db);
+        RoomRefreshTable.onCreate(db);
     }
 
     @Override
@@ -62,6 +67,7 @@ public class WasherCheckDatabase extends SQLiteOpenHelper {
         MachineStatusView.onUpgrade(db, oldVersion, newVersion);
         MachineGroupTable.onUpgrade(db, mLocations, oldVersion, newVersion);
         CompletedMachineNotificationTable.onUpgrade(db, oldVersion, newVersion);
+        RoomRefreshTable.onUpgrade(db, oldVersion, newVersion);
     }
 
     public static final class CompletedMachineNotificationTable {
@@ -82,7 +88,28 @@ public class WasherCheckDatabase extends SQLiteOpenHelper {
 
         public static void onUpgrade(
               final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-            if (oldVersion < DB_VERSION) {
+            if (oldVersion < LAST_DESTRUCTIVE_VERSION) {
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+                onCreate(db);
+            }
+        }
+    }
+
+    static final class RoomRefreshTable implements WasherCheckContract.RoomRefreshColumns {
+        public static final String TABLE_NAME = WasherCheckContract.RoomRefresh.PATH;
+        public static final String SQL_CREATE =
+              "CREATE TABLE " + TABLE_NAME + " (\n" +
+                    ROOM_ID + " INTEGER PRIMARY KEY,\n" +
+                    LAST_CHECKED + " INTEGER NOT NULL\n" +
+                    ")";
+
+        public static void onCreate(SQLiteDatabase db) {
+            db.execSQL(SQL_CREATE);
+        }
+
+        public static void onUpgrade(
+              final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+            if (oldVersion < 7) {
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
                 onCreate(db);
             }
@@ -102,16 +129,27 @@ public class WasherCheckDatabase extends SQLiteOpenHelper {
                     "UNIQUE (" + ROOM_ID + "," + NUMBER + "," + MACHINE_TYPE + ") " +
                     "ON CONFLICT IGNORE\n" +
                     ")";
+        /**
+         * Finds a room's machines already in type order, and covers every machine column the
+         * machine_status view reads (the rowid is implicitly part of the index).
+         */
+        public static final String INDEX_ROOM = TABLE_NAME + "_room";
+        public static final String SQL_CREATE_INDEX_ROOM =
+              "CREATE INDEX " + INDEX_ROOM + " ON " + TABLE_NAME + " (" +
+                    ROOM_ID + "," + MACHINE_TYPE + "," + NUMBER + "," + ESUDS_ID + ")";
 
         public static void onCreate(SQLiteDatabase db) {
             db.execSQL(SQL_CREATE);
+            db.execSQL(SQL_CREATE_INDEX_ROOM);
         }
 
         public static void onUpgrade(
               final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-            if (oldVersion < DB_VERSION) {
+            if (oldVersion < LAST_DESTRUCTIVE_VERSION) {
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
                 onCreate(db);
+            } else if (oldVersion < 6) {
+                db.execSQL(SQL_CREATE_INDEX_ROOM);
             }
         }
     }
@@ -139,26 +177,25 @@ public class WasherCheckDatabase extends SQLiteOpenHelper {
 
             assert insertStatement != null;
 
-            insertGrouping(locations.getRoot(), insertStatement);
+            insertGroupings(locations.getRoot().getTree(), insertStatement);
             db.setTransactionSuccessful();
             db.endTransaction();
         }
 
-        private static void insertGrouping(
-              @NotNull MachineGrouping grouping, @NotNull SQLiteStatement insertStatement) {
-            insertStatement.bindLong(1, grouping.id);
-            insertStatement.bindLong(2, grouping.type.ordinal());
-            insertStatement.bindString(3, grouping.name);
-            insertStatement.bindDouble(4, grouping.location.getLatitude());
-            insertStatement.bindDouble(5, grouping.location.getLongitude());
-            if (grouping.parent != null)
-                insertStatement.bindLong(6, grouping.parent.id);
-            if (grouping.getColor() != null)
-                insertStatement.bindLong(7, grouping.getColor());
-            insertStatement.executeInsert();
-            insertStatement.clearBindings();
-            for (MachineGrouping child : grouping.children) {
-                insertGrouping(child, insertStatement);
+        private static void insertGroupings(
+              @NotNull LocationTree tree, @NotNull SQLiteStatement insertStatement) {
+            for (int i = 0; i < tree.size(); i++) {
+                insertStatement.bindLong(1, tree.getId(i));
+                insertStatement.bindLong(2, tree.getType(i).ordinal());
+                insertStatement.bindString(3, tree.getName(i));
+                insertStatement.bindDouble(4, tree.getLatitude(i));
+                insertStatement.bindDouble(5, tree.getLongitude(i));
+                if (tree.getParent(i) != LocationTree.NO_PARENT)
+                    insertStatement.bindLong(6, tree.getId(tree.getParent(i)));
+                if (tree.hasColor(i))
+                    insertStatement.bindLong(7, tree.getColor(i));
+                insertStatement.executeInsert();
+                insertStatement.clearBindings();
             }
         }
 
@@ -184,16 +221,27 @@ public class WasherCheckDatabase extends SQLiteOpenHelper {
                     STATUS + " INTEGER NOT NULL,\n" +
                     REPORTED_TIME_REMAINING + " INTEGER,\n" +
                     LAST_UPDATED + " INTEGER NOT NULL )";
+        /**
+         * Lets the join in machine_status read a machine's status without touching the table.
+         */
+        public static final String INDEX_MACHINE = TABLE_NAME + "_machine";
+        public static final String SQL_CREATE_INDEX_MACHINE =
+              "CREATE INDEX " + INDEX_MACHINE + " ON " + TABLE_NAME + " (" +
+                    MACHINE_ID + "," + STATUS + "," + REPORTED_TIME_REMAINING + "," +
+                    LAST_UPDATED + ")";
 
         public static void onCreate(SQLiteDatabase db) {
             db.execSQL(SQL_CREATE);
+            db.execSQL(SQL_CREATE_INDEX_MACHINE);
         }
 
         public static void onUpgrade(
               final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-            if (oldVersion < DB_VERSION) {
+            if (oldVersion < LAST_DESTRUCTIVE_VERSION) {
                 db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
                 onCreate(db);
+            } else if (oldVersion < 6) {
+                db.execSQL(SQL_CREATE_INDEX_MACHINE);
             }
         }
     }
@@ -31,6 +31,8 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 
@@ -58,6 +60,13 @@ public class WasherCheckProvider extends ContentProvider {
     private static final int MACHINE_STATUS = 40;
     private static final int MACHINE_STATUS_BY_ROOM = 41;
     private static final int MACHINE_STATUS_ID = 42;
+    private static final int ROOM_REFRESH = 50;
+    private static final int ROOM_REFRESH_ID = 51;
+
+    static final String MACHINE_STATUS_BY_ROOM_SORT =
+          MachineStatusColumns.ROOM_ID + "," + MachineStatusColumns.MACHINE_TYPE +
+                ", " + MachineStatusColumns.STATUS + "," +
+                MachineStatusColumns.REPORTED_TIME_REMAINING + "," + MachineStatusColumns.NUMBER;
 
     static {
         URI_MATCHER.addURI(AUTHORITY, Machine.PATH, MACHINES);
@@ -73,6 +82,9 @@ public class WasherCheckProvider extends ContentProvider {
         URI_MATCHER.addURI(AUTHORITY, MachineStatus.PATH, MACHINE_STATUS);
         URI_MATCHER.addURI(AUTHORITY, MachineStatus.PATH + "/room/#", MACHINE_STATUS_BY_ROOM);
         URI_MATCHER.addURI(AUTHORITY, MachineStatus.PATH + "/#", MACHINE_STATUS_ID);
+
+        URI_MATCHER.addURI(AUTHORITY, RoomRefresh.PATH, ROOM_REFRESH);
+        URI_MATCHER.addURI(AUTHORITY, RoomRefresh.PATH + "/#", ROOM_REFRESH_ID);
     }
 
     private ApplicationComponent mComponent;
@@ -139,11 +151,12 @@ public class WasherCheckProvider extends ContentProvider {
             break;
         case MACHINE_STATUS_BY_ROOM:
             if (TextUtils.isEmpty(sortOrder))
-                sortOrder = MachineStatusColumns.ROOM_ID + "," + MachineStatusColumns.MACHINE_TYPE +
-                      ", " + MachineStatusColumns.STATUS + "," + MachineStatusColumns.REPORTED_TIME_REMAINING +
-                      "," + MachineStatusColumns.NUMBER;
+                sortOrder = MACHINE_STATUS_BY_ROOM_SORT;
             builder.appendWhere(MachineStatusColumns.ROOM_ID + "=" + uri.getLastPathSegment());
             break;
+        case ROOM_REFRESH_ID:
+            builder.appendWhere(RoomRefreshColumns.ROOM_ID + "=" + uri.getLastPathSegment());
+            break;
         default:
             // No filter by default
         }
@@ -184,6 +197,10 @@ public class WasherCheckProvider extends ContentProvider {
             return MachineStatus.CONTENT_TYPE;
         case MACHINE_STATUS_ID:
             return MachineStatus.CONTENT_ITEM_TYPE;
+        case ROOM_REFRESH:
+            return RoomRefresh.CONTENT_TYPE;
+        case ROOM_REFRESH_ID:
+            return RoomRefresh.CONTENT_ITEM_TYPE;
         default:
             throw new UnsupportedOperationException("Unknown URI: " + uri);
         }
@@ -206,6 +223,8 @@ public class WasherCheckProvider extends ContentProvider {
         case MACHINE_GROUPING:
         case MACHINE_GROUPING_ID:
         case MACHINE_STATUS_ID:
+        case ROOM_REFRESH:
+        case ROOM_REFRESH_ID:
             throw new UnsupportedOperationException("Cannot insert into URI: " + uri);
         case MACHINE_STATUS_BY_ROOM:
             values.put(MachineStatusColumns.ROOM_ID, Long.parseLong(uri.getLastPathSegment()));
@@ -274,6 +293,94 @@ public class WasherCheckProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Inserts a whole batch of machine statuses in a single transaction. Other URIs fall back to
+     * inserting row by row.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final int uriType = URI_MATCHER.match(uri);
+        final Long roomId;
+        switch (uriType) {
+        case MACHINE_STATUS_BY_ROOM:
+            roomId = Long.parseLong(uri.getLastPathSegment());
+            break;
+        case MACHINE_STATUS:
+            roomId = null;
+            break;
+        default:
+            return super.bulkInsert(uri, values);
+        }
+
+        final SQLiteDatabase db = mDbOpener.getWritableDatabase();
+
+        assert db != null;
+
+        int inserted = 0;
+        db.beginTransaction();
+        final MachineStatusWriter writer = new MachineStatusWriter(db);
+        try {
+            for (ContentValues cv : values) {
+                if (writer.write(cv, roomId) != -1)
+                    inserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
+        return inserted;
+    }
+
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (MachineStatus.METHOD_REPLACE_ROOM.equals(method)) {
+            final long roomId = Long.parseLong(arg);
+            final boolean changed =
+                  replaceRoom(roomId, extras.getParcelableArray(MachineStatus.EXTRA_VALUES));
+            if (changed)
+                mContentResolver.notifyChange(MachineStatus.fromRoomId(roomId), null);
+            final Bundle result = new Bundle();
+            result.putBoolean(MachineStatus.EXTRA_CHANGED, changed);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Updates the room's machines and statuses to <code>values</code> in one transaction, so
+     * readers never see the room half written. Only machines that changed are written, and the
+     * room's last checked time is recorded either way.
+     *
+     * @return whether any machine changed
+     */
+    private boolean replaceRoom(long roomId, Parcelable[] values) {
+        final SQLiteDatabase db = mDbOpener.getWritableDatabase();
+
+        assert db != null;
+
+        final boolean changed;
+        db.beginTransaction();
+        try {
+            final MachineStatusWriter writer = new MachineStatusWriter(db);
+            try {
+                changed = writer.replaceRoom(roomId, values);
+            } finally {
+                writer.close();
+            }
+
+            final ContentValues refresh = new ContentValues(2);
+            refresh.put(RoomRefreshColumns.ROOM_ID, roomId);
+            refresh.put(RoomRefreshColumns.LAST_CHECKED, System.currentTimeMillis());
+            db.replace(RoomRefreshTable.TABLE_NAME, null, refresh);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return changed;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final int uriType = URI_MATCHER.match(uri);
@@ -290,6 +397,8 @@ public class WasherCheckProvider extends ContentProvider {
         case MACHINE_STATUS:
         case MACHINE_STATUS_BY_ROOM:
         case MACHINE_STATUS_ID:
+        case ROOM_REFRESH:
+        case ROOM_REFRESH_ID:
             throw new UnsupportedOperationException("Cannot delete from URI: " + uri);
         case MACHINES_ID:
         case MACHINES_BY_ROOM:
@@ -327,6 +436,8 @@ public class WasherCheckProvider extends ContentProvider {
         case MACHINE_STATUS:
         case MACHINE_STATUS_BY_ROOM:
         case MACHINE_STATUS_ID:
+        case ROOM_REFRESH:
+        case ROOM_REFRESH_ID:
             throw new UnsupportedOperationException("Cannot update URI: " + uri);
 
         case MACHINES_ID:
@@ -366,6 +477,9 @@ public class WasherCheckProvider extends ContentProvider {
         case MACHINE_GROUPING:
         case MACHINE_GROUPING_ID:
             return MachineGroupTable.TABLE_NAME;
+        case ROOM_REFRESH:
+        case ROOM_REFRESH_ID:
+            return RoomRefreshTable.TABLE_NAME;
         default:
             throw new UnsupportedOperationException("Unknown URI");
         }
@@ -30,14 +30,39 @@ public class MachinesLoadedBroadcastReceiver extends WakefulBroadcastReceiver {
     public static final String BROADCAST_TAG = "net.zdremann.wc.MACHINES_LOADED";
     public static final String EXTRA_ROOM_IDS = "net.zdremann.wc.roomIds";
     public static final String EXTRA_SUCCESSFUL_LOAD = "net.zdremann.wc.successful";
+    public static final String EXTRA_SUCCEEDED_ROOM_IDS = "net.zdremann.wc.succeededRoomIds";
+    public static final String EXTRA_FAILED_ROOM_IDS = "net.zdremann.wc.failedRoomIds";
+
+    /**
+     * {@link #EXTRA_ROOM_IDS} holds every room that was refreshed, and
+     * {@link #EXTRA_SUCCESSFUL_LOAD} is true only if none of them failed.
+     */
+    public static Intent createBroadcastIntent(long[] succeededRoomIds, long[] failedRoomIds) {
+        final long[] roomIds = new long[succeededRoomIds.length + failedRoomIds.length];
+        System.arraycopy(succeededRoomIds, 0, roomIds, 0, succeededRoomIds.length);
+        System.arraycopy(
+              failedRoomIds, 0, roomIds, succeededRoomIds.length, failedRoomIds.length
+        );
 
-    public static Intent createBroadcastIntent(boolean successful, long... roomIds) {
         final Intent intent = new Intent(BROADCAST_TAG);
         intent.putExtra(EXTRA_ROOM_IDS, roomIds);
-        intent.putExtra(EXTRA_SUCCESSFUL_LOAD, successful);
+        intent.putExtra(EXTRA_SUCCEEDED_ROOM_IDS, succeededRoomIds);
+        intent.putExtra(EXTRA_FAILED_ROOM_IDS, failedRoomIds);
+        intent.putExtra(EXTRA_SUCCESSFUL_LOAD, failedRoomIds.length == 0);
         return intent;
     }
 
+    public static boolean containsRoom(Intent intent, String extra, long roomId) {
+        final long[] roomIds = intent.getLongArrayExtra(extra);
+        if (roomIds == null)
+            return false;
+        for (long id : roomIds) {
+            if (id == roomId)
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
         //Do nothing
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.service;
+
+import android.os.SystemClock;
+import android.support.v4.util.LongSparseArray;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Remembers which rooms were written recently, so that a refresh requested just after another
+ * one finished can be treated as already done.
+ */
+@Singleton
+public class RecentRefreshes {
+    static final long WINDOW_MILLIS = 15 * 1000;
+
+    private final LongSparseArray<Long> mRefreshedAt = new LongSparseArray<Long>();
+
+    @Inject
+    public RecentRefreshes() {
+    }
+
+    public synchronized void refreshed(long roomId) {
+        mRefreshedAt.put(roomId, SystemClock.elapsedRealtime());
+    }
+
+    public synchronized boolean isRecent(long roomId) {
+        final Long refreshedAt = mRefreshedAt.get(roomId);
+        return refreshedAt != null
+              && SystemClock.elapsedRealtime() - refreshedAt < WINDOW_MILLIS;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.service;
+
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.Provides;
+
+@Module
+public class RefreshModule {
+    private static final int PARALLELISM = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    @Provides
+    @RefreshParallelism
+    int provideRefreshParallelism() {
+        return PARALLELISM;
+    }
+
+    /**
+     * A refresh never has more than <code>parallelism</code> rooms waiting. Anything beyond that,
+     * such as rooms submitted while cancelled ones still hold their threads, runs on the caller.
+     */
+    @Provides
+    @Singleton
+    @RefreshExecutor
+    ExecutorService provideRefreshExecutor(@RefreshParallelism int parallelism) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+              parallelism, parallelism, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(parallelism), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(
+                      new Runnable() {
+                          @Override
+                          public void run() {
+                              Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                              r.run();
+                          }
+                      }, "RoomRefresher #" + mCount.getAndIncrement()
+                );
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
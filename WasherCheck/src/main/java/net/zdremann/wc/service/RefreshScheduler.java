@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.service;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.util.LongSparseArray;
+
+import net.zdremann.ForApplication;
+import net.zdremann.wc.model.Machine;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static net.zdremann.wc.provider.WasherCheckContract.MachineStatus;
+
+/**
+ * Decides when to refresh each room being watched, from what is in the room:
+ * <ul>
+ * <li>shortly after the earliest reported time remaining runs out,</li>
+ * <li>every {@link #DEFAULT_INTERVAL} otherwise, while machines are in use,</li>
+ * <li>every {@link #IDLE_INTERVAL} when every machine is available or unavailable,</li>
+ * <li>after a jittered, exponentially growing delay when refreshing fails.</li>
+ * </ul>
+ * Rooms due within {@link #COALESCE_WINDOW} of each other are refreshed together, several at a
+ * time.
+ * All methods but {@link #summarize(Cursor)} must be called on the main thread.
+ */
+@Singleton
+public class RefreshScheduler {
+    static final long SECOND = 1000;
+    static final long MINUTE = 60 * SECOND;
+    static final long DEFAULT_INTERVAL = 5 * MINUTE;
+    static final long IDLE_INTERVAL = 15 * MINUTE;
+    static final long MIN_INTERVAL = 30 * SECOND;
+    /**
+     * How long after a machine's time runs out to refresh, to give eSuds a chance to notice.
+     */
+    static final long EXPIRY_GRACE = 30 * SECOND;
+    static final long BASE_BACKOFF = 30 * SECOND;
+    static final long MAX_BACKOFF = 15 * MINUTE;
+    /**
+     * If no result arrives for a started refresh after this long, it is counted as failed.
+     */
+    static final long REFRESH_TIMEOUT = 2 * MINUTE;
+    /**
+     * How early a room may be refreshed so that it can go along with another room's refresh.
+     */
+    static final long COALESCE_WINDOW = 30 * SECOND;
+
+    public interface Listener {
+        void onRefreshStarted(long roomId);
+    }
+
+    /**
+     * The parts of a room's statuses that decide when to refresh it
+     */
+    public static final class RoomSummary {
+        /**
+         * When each machine in use is expected to finish, in wall clock time, sorted
+         */
+        private final long[] mCompletionTimes;
+        private final boolean mActive;
+
+        RoomSummary(@NotNull long[] completionTimes, boolean active) {
+            mCompletionTimes = completionTimes;
+            mActive = active;
+        }
+    }
+
+    @NotNull
+    private final Context mContext;
+    private final int mParallelism;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+    private final LongSparseArray<RoomSchedule> mRooms = new LongSparseArray<RoomSchedule>();
+
+    private final BroadcastReceiver mRefreshCompleteReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final long[] succeeded = intent.getLongArrayExtra(
+                  MachinesLoadedBroadcastReceiver.EXTRA_SUCCEEDED_ROOM_IDS
+            );
+            final long[] failed = intent.getLongArrayExtra(
+                  MachinesLoadedBroadcastReceiver.EXTRA_FAILED_ROOM_IDS
+            );
+            if (succeeded != null) {
+                for (long roomId : succeeded) {
+                    onRefreshFinished(roomId, true);
+                }
+            }
+            if (failed != null) {
+                for (long roomId : failed) {
+                    onRefreshFinished(roomId, false);
+                }
+            }
+        }
+    };
+
+    @Inject
+    public RefreshScheduler(
+          @ForApplication @NotNull Context context, @RefreshParallelism int parallelism) {
+        mContext = context;
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Starts refreshing the room, immediately if it is not already being watched.
+     */
+    public void start(long roomId, @NotNull Listener listener) {
+        if (mRooms.size() == 0) {
+            mContext.registerReceiver(
+                  mRefreshCompleteReceiver,
+                  new IntentFilter(MachinesLoadedBroadcastReceiver.BROADCAST_TAG)
+            );
+        }
+
+        RoomSchedule room = mRooms.get(roomId);
+        if (room == null) {
+            room = new RoomSchedule(roomId);
+            mRooms.put(roomId, room);
+            room.listeners.add(listener);
+            refresh(room);
+        } else {
+            room.listeners.add(listener);
+        }
+    }
+
+    public void stop(long roomId, @NotNull Listener listener) {
+        final RoomSchedule room = mRooms.get(roomId);
+        if (room == null)
+            return;
+        room.listeners.remove(listener);
+        if (!room.listeners.isEmpty())
+            return;
+
+        mHandler.removeCallbacks(room.refresh);
+        mRooms.remove(roomId);
+        if (mRooms.size() == 0)
+            mContext.unregisterReceiver(mRefreshCompleteReceiver);
+    }
+
+    /**
+     * Refreshes the room now, unless a refresh is already running.
+     */
+    public void refreshNow(long roomId) {
+        final RoomSchedule room = mRooms.get(roomId);
+        if (room != null && !room.inFlight)
+            refresh(room);
+    }
+
+    /**
+     * Updates the schedule from the room's current machine statuses, as read by
+     * {@link #summarize(Cursor)}.
+     */
+    public void onRoomLoaded(long roomId, @NotNull RoomSummary summary) {
+        final RoomSchedule room = mRooms.get(roomId);
+        if (room == null)
+            return;
+
+        // Statuses are in wall clock time, schedules in elapsed realtime
+        final long wallToElapsed = SystemClock.elapsedRealtime() - System.currentTimeMillis();
+        room.expiries = new long[summary.mCompletionTimes.length];
+        for (int i = 0; i < room.expiries.length; i++) {
+            room.expiries[i] = summary.mCompletionTimes[i] + wallToElapsed;
+        }
+        room.active = summary.mActive;
+
+        if (!room.inFlight && room.failures == 0)
+            schedule(room, room.lastRefreshed + nextDelay(room, room.lastRefreshed));
+    }
+
+    /**
+     * Reads what the schedule needs out of a room's machine statuses. Walks the whole cursor, so
+     * it belongs on a loader's background thread; any thread is fine.
+     */
+    @NotNull
+    public static RoomSummary summarize(@NotNull Cursor cursor) {
+        final int idxStatus = cursor.getColumnIndexOrThrow(MachineStatus.STATUS);
+        final int idxLastUpdated = cursor.getColumnIndexOrThrow(MachineStatus.LAST_UPDATED);
+        final int idxTimeRemaining =
+              cursor.getColumnIndexOrThrow(MachineStatus.REPORTED_TIME_REMAINING);
+
+        final long[] completionTimes = new long[cursor.getCount()];
+        int count = 0;
+        boolean active = false;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final Machine.Status status = Machine.Status.fromInt(cursor.getInt(idxStatus));
+            if (status != Machine.Status.IN_USE && status != Machine.Status.CYCLE_COMPLETE)
+                continue;
+            active = true;
+            if (status == Machine.Status.IN_USE && !cursor.isNull(idxTimeRemaining)) {
+                final long timeRemaining = cursor.getLong(idxTimeRemaining);
+                if (timeRemaining >= 0)
+                    completionTimes[count++] = cursor.getLong(idxLastUpdated) + timeRemaining;
+            }
+        }
+        cursor.moveToPosition(-1);
+
+        final long[] sorted = Arrays.copyOf(completionTimes, count);
+        Arrays.sort(sorted);
+        return new RoomSummary(sorted, active);
+    }
+
+    private void onRefreshFinished(long roomId, boolean successful) {
+        final RoomSchedule room = mRooms.get(roomId);
+        if (room == null || !room.inFlight)
+            return;
+        room.inFlight = false;
+
+        final long now = SystemClock.elapsedRealtime();
+        if (successful) {
+            room.failures = 0;
+            room.lastRefreshed = now;
+            schedule(room, now + nextDelay(room, now));
+        } else {
+            room.failures++;
+            schedule(room, now + backoff(room.failures));
+        }
+    }
+
+    /**
+     * Refreshes the room, along with every other room that is due within
+     * {@link #COALESCE_WINDOW}.
+     */
+    private void refresh(RoomSchedule room) {
+        final long now = SystemClock.elapsedRealtime();
+        final List<RoomSchedule> due = new ArrayList<RoomSchedule>(mRooms.size());
+        due.add(room);
+        for (int i = 0; i < mRooms.size(); i++) {
+            final RoomSchedule other = mRooms.valueAt(i);
+            if (other != room && !other.inFlight && other.dueAt - now <= COALESCE_WINDOW)
+                due.add(other);
+        }
+
+        final long[] roomIds = new long[due.size()];
+        for (int i = 0; i < roomIds.length; i++) {
+            due.get(i).inFlight = true;
+            roomIds[i] = due.get(i).roomId;
+        }
+        mContext.startService(
+              RoomRefresher.createParallelIntent(mContext, mParallelism, roomIds)
+        );
+
+        for (RoomSchedule dueRoom : due) {
+            for (Listener listener : dueRoom.listeners) {
+                listener.onRefreshStarted(dueRoom.roomId);
+            }
+            schedule(dueRoom, now + REFRESH_TIMEOUT);
+        }
+    }
+
+    private void schedule(RoomSchedule room, long atElapsedRealtime) {
+        room.dueAt = atElapsedRealtime;
+        mHandler.removeCallbacks(room.refresh);
+        mHandler.postAtTime(
+              room.refresh,
+              SystemClock.uptimeMillis() + Math.max(
+                    0, atElapsedRealtime - SystemClock.elapsedRealtime()
+              )
+        );
+    }
+
+    /**
+     * @return how long after a successful refresh at <code>from</code> to refresh again
+     */
+    private static long nextDelay(RoomSchedule room, long from) {
+        if (!room.active)
+            return IDLE_INTERVAL;
+        for (long expiry : room.expiries) {
+            final long delay = expiry + EXPIRY_GRACE - from;
+            if (delay > 0)
+                return Math.min(DEFAULT_INTERVAL, Math.max(MIN_INTERVAL, delay));
+        }
+        return DEFAULT_INTERVAL;
+    }
+
+    /**
+     * A random delay between half and all of the exponential backoff, so rooms
+     * that failed together don't retry together.
+     */
+    private long backoff(int failures) {
+        final long max = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(failures - 1, 10));
+        return max / 2 + (long) (mRandom.nextDouble() * (max / 2));
+    }
+
+    final class RoomSchedule {
+        final long roomId;
+        final List<Listener> listeners = new ArrayList<Listener>(1);
+        final Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                if (inFlight) {
+                    // The last refresh never reported back
+                    onRefreshFinished(roomId, false);
+                } else {
+                    refresh(RoomSchedule.this);
+                }
+            }
+        };
+        long lastRefreshed;
+        /**
+         * When the next refresh is scheduled, in elapsed realtime
+         */
+        long dueAt;
+        boolean inFlight;
+        int failures;
+        boolean active = true;
+        long[] expiries = new long[0];
+
+        RoomSchedule(long roomId) {
+            this.roomId = roomId;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.support.v4.content.WakefulBroadcastReceiver;
 import android.util.Log;
 
@@ -35,11 +36,24 @@ import net.zdremann.wc.Main;
 import net.zdremann.wc.WcApplication;
 import net.zdremann.wc.io.rooms.MachineGetter;
 import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.model.Room;
 import net.zdremann.wc.provider.WasherCheckContract;
 import net.zdremann.wc.ui.RoomViewer;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
@@ -48,6 +62,8 @@ import dagger.Lazy;
 public class RoomRefresher extends IntentService {
     private static final String TAG = "RoomRefresherService";
     private static final String ARG_ROOM_IDS = "net.dremann.wc.room_ids";
+    private static final String ARG_PARALLELISM = "net.dremann.wc.parallelism";
+    private static final String ARG_FORCE = "net.dremann.wc.force";
 
     @Inject
     MachineGetter mMachineGetter;
@@ -56,6 +72,14 @@ public class RoomRefresher extends IntentService {
     @Inject
     @Main
     Lazy<SharedPreferences> mLazyPreferences;
+    @Inject
+    @RefreshExecutor
+    Lazy<ExecutorService> mLazyExecutor;
+    @Inject
+    RecentRefreshes mRecentRefreshes;
+    @Inject
+    @RefreshParallelism
+    int mMaxParallelism;
 
     public static Intent createIntent(Context ctx, long... roomIds) {
         Intent intent = new Intent(ctx, RoomRefresher.class);
@@ -63,6 +87,27 @@ public class RoomRefresher extends IntentService {
         return intent;
     }
 
+    /**
+     * Fetches up to <code>parallelism</code> rooms at once, at most {@link RefreshParallelism},
+     * instead of loading them all with one batch request. Each room is written as soon as it
+     * arrives, so one slow room does not hold back the others.
+     */
+    public static Intent createParallelIntent(Context ctx, int parallelism, long... roomIds) {
+        Intent intent = createIntent(ctx, roomIds);
+        intent.putExtra(ARG_PARALLELISM, parallelism);
+        return intent;
+    }
+
+    /**
+     * Refreshes the rooms even if they were written within {@link RecentRefreshes#WINDOW_MILLIS},
+     * for when the data behind the last write is known to have changed.
+     */
+    public static Intent createForcedIntent(Context ctx, long... roomIds) {
+        Intent intent = createIntent(ctx, roomIds);
+        intent.putExtra(ARG_FORCE, true);
+        return intent;
+    }
+
     public RoomRefresher() {
         super(TAG);
     }
@@ -81,46 +126,204 @@ public class RoomRefresher extends IntentService {
             roomIds = new long[]{mLazyPreferences.get().getLong(RoomViewer.ARG_ROOM_ID, 0)};
         }
 
-        boolean successful = true;
+        final RefreshResult result = new RefreshResult(roomIds.length);
+        roomIds = roomsToRefresh(roomIds, intent.getBooleanExtra(ARG_FORCE, false), result);
+        final int parallelism = Math.min(
+              intent.getIntExtra(ARG_PARALLELISM, 1), mMaxParallelism
+        );
+        if (roomIds.length == 0)
+            Log.d(TAG, "Every room was refreshed recently");
+        else if (parallelism > 1 && roomIds.length > 1)
+            refreshInParallel(roomIds, parallelism, result);
+        else
+            refreshInBatch(roomIds, result);
+
+        final Intent broadcastIntent = MachinesLoadedBroadcastReceiver.createBroadcastIntent(
+              result.getSucceeded(), result.getFailed()
+        );
+        this.sendBroadcast(broadcastIntent);
+
+        WakefulBroadcastReceiver.completeWakefulIntent(intent);
+    }
+
+    /**
+     * Drops duplicate rooms, and counts rooms written within {@link RecentRefreshes#WINDOW_MILLIS}
+     * as already refreshed unless <code>force</code> is set.
+     *
+     * @return the rooms that still need refreshing
+     */
+    private long[] roomsToRefresh(long[] roomIds, boolean force, RefreshResult result) {
+        final Set<Long> unique = new LinkedHashSet<Long>(roomIds.length);
+        for (long roomId : roomIds) {
+            unique.add(roomId);
+        }
+
+        final long[] toRefresh = new long[unique.size()];
+        int count = 0;
+        for (long roomId : unique) {
+            if (!force && mRecentRefreshes.isRecent(roomId))
+                result.succeeded(roomId);
+            else
+                toRefresh[count++] = roomId;
+        }
+        return Arrays.copyOf(toRefresh, count);
+    }
+
+    private void refreshInBatch(long[] roomIds, RefreshResult result) {
+        Map<Long, List<Machine>> loaded;
+        try {
+            loaded = mMachineGetter.getMachines(roomIds);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not load rooms " + Arrays.toString(roomIds), e);
+            loaded = Collections.emptyMap();
+        }
 
         for (long roomId : roomIds) {
+            final List<Machine> machines = loaded.get(roomId);
+            if (machines == null) {
+                result.failed(roomId);
+                continue;
+            }
+            writeRoom(roomId, machines);
+            result.succeeded(roomId);
+        }
+    }
+
+    private void refreshInParallel(long[] roomIds, int parallelism, RefreshResult result) {
+        final CompletionService<List<Machine>> completionService =
+              new ExecutorCompletionService<List<Machine>>(mLazyExecutor.get());
+        final Map<Future<List<Machine>>, Long> pending =
+              new HashMap<Future<List<Machine>>, Long>(parallelism);
+
+        int next = 0;
+        while (next < roomIds.length && pending.size() < parallelism) {
+            pending.put(submitRoom(completionService, roomIds[next]), roomIds[next]);
+            next++;
+        }
+
+        while (!pending.isEmpty()) {
+            final Future<List<Machine>> done;
             try {
-                final List<Machine> machines = mMachineGetter.getMachines(roomId);
-                long time = System.currentTimeMillis();
-
-                ContentValues[] values = new ContentValues[machines.size()];
-                int i = 0;
-
-                for (Machine machine : machines) {
-                    ContentValues cv = new ContentValues();
-                    cv.put(WasherCheckContract.MachineStatus.ESUDS_ID, machine.getEsudsId());
-                    cv.put(WasherCheckContract.MachineStatus.NUMBER, machine.getNum());
-                    cv.put(WasherCheckContract.MachineStatus.MACHINE_TYPE, machine.getType().ordinal());
-                    cv.put(WasherCheckContract.MachineStatus.ROOM_ID, machine.getRoomId());
-                    cv.put(WasherCheckContract.MachineStatus.STATUS, machine.getStatus().ordinal());
-                    cv.put(
-                          WasherCheckContract.MachineStatus.REPORTED_TIME_REMAINING,
-                          machine.getTimeRemaining()
-                    );
-                    cv.put(WasherCheckContract.MachineStatus.LAST_UPDATED, time);
-                    values[i++] = cv;
+                done = completionService.take();
+            } catch (InterruptedException e) {
+                for (Map.Entry<Future<List<Machine>>, Long> entry : pending.entrySet()) {
+                    entry.getKey().cancel(true);
+                    result.failed(entry.getValue());
                 }
+                for (int i = next; i < roomIds.length; i++) {
+                    result.failed(roomIds[i]);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
 
-                mResolver.delete(WasherCheckContract.Machine.fromRoomId(roomId), null, null);
+            final long roomId = pending.remove(done);
+            try {
+                writeRoom(roomId, done.get());
+                result.succeeded(roomId);
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Could not load room " + roomId, e.getCause());
+                result.failed(roomId);
+            } catch (InterruptedException e) {
+                // Cannot happen, the future is already done
+                result.failed(roomId);
+            }
 
-                mResolver.bulkInsert(WasherCheckContract.MachineStatus.CONTENT_URI, values);
+            if (next < roomIds.length) {
+                pending.put(submitRoom(completionService, roomIds[next]), roomIds[next]);
+                next++;
+            }
+        }
+    }
 
-                mResolver.notifyChange(WasherCheckContract.MachineStatus.fromRoomId(roomId), null);
-            } catch (IOException e) {
-                e.printStackTrace();
-                successful = false;
+    private Future<List<Machine>> submitRoom(
+          CompletionService<List<Machine>> completionService, final long roomId) {
+        return completionService.submit(
+              new Callable<List<Machine>>() {
+                  @Override
+                  public List<Machine> call() throws Exception {
+                      return mMachineGetter.getMachines(roomId);
+                  }
+              }
+        );
+    }
+
+    /**
+     * Writes the room, stamped with when it was actually loaded if it is a {@link Room}: a room
+     * served from the cache can be minutes old.
+     */
+    private void writeRoom(long roomId, List<Machine> machines) {
+        long time = System.currentTimeMillis();
+        if (machines instanceof Room)
+            time -= SystemClock.elapsedRealtime() - ((Room) machines).getTimeLoaded();
+
+        ContentValues[] values = new ContentValues[machines.size()];
+        int i = 0;
+
+        if (machines instanceof Room) {
+            // Read the parsed rows directly, instead of creating a Machine for each
+            final Room room = (Room) machines;
+            for (Machine.Type type : room.getTypes()) {
+                for (int index = 0; index < room.count(type); index++) {
+                    values[i++] = statusValues(
+                          roomId, room.getEsudsId(type, index), room.getNumber(type, index),
+                          type, room.getStatus(type, index), room.getTimeRemaining(type, index),
+                          time
+                    );
+                }
+            }
+        } else {
+            for (Machine machine : machines) {
+                values[i++] = statusValues(
+                      machine.getRoomId(), machine.getEsudsId(), machine.getNum(),
+                      machine.getType(), machine.getStatus(), machine.getTimeRemaining(), time
+                );
             }
         }
 
-        final Intent broadcastIntent =
-              MachinesLoadedBroadcastReceiver.createBroadcastIntent(successful, roomIds);
-        this.sendBroadcast(broadcastIntent);
+        WasherCheckContract.MachineStatus.replaceRoom(mResolver, roomId, values);
+        mRecentRefreshes.refreshed(roomId);
+    }
 
-        WakefulBroadcastReceiver.completeWakefulIntent(intent);
+    private static ContentValues statusValues(
+          long roomId, long esudsId, int number, Machine.Type type, Machine.Status status,
+          long timeRemaining, long time) {
+        ContentValues cv = new ContentValues();
+        cv.put(WasherCheckContract.MachineStatus.ESUDS_ID, esudsId);
+        cv.put(WasherCheckContract.MachineStatus.NUMBER, number);
+        cv.put(WasherCheckContract.MachineStatus.MACHINE_TYPE, type.ordinal());
+        cv.put(WasherCheckContract.MachineStatus.ROOM_ID, roomId);
+        cv.put(WasherCheckContract.MachineStatus.STATUS, status.ordinal());
+        cv.put(WasherCheckContract.MachineStatus.REPORTED_TIME_REMAINING, timeRemaining);
+        cv.put(WasherCheckContract.MachineStatus.LAST_UPDATED, time);
+        return cv;
+    }
+
+    private static class RefreshResult {
+        private final long[] mSucceeded;
+        private final long[] mFailed;
+        private int mSucceededCount = 0;
+        private int mFailedCount = 0;
+
+        RefreshResult(int roomCount) {
+            mSucceeded = new long[roomCount];
+            mFailed = new long[roomCount];
+        }
+
+        void succeeded(long roomId) {
+            mSucceeded[mSucceededCount++] = roomId;
+        }
+
+        void failed(long roomId) {
+            mFailed[mFailedCount++] = roomId;
+        }
+
+        long[] getSucceeded() {
+            return Arrays.copyOf(mSucceeded, mSucceededCount);
+        }
+
+        long[] getFailed() {
+            return Arrays.copyOf(mFailed, mFailedCount);
+        }
     }
 }
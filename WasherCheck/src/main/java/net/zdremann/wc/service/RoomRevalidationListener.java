@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.service;
+
+import android.content.Context;
+
+import net.zdremann.ForApplication;
+import net.zdremann.wc.io.rooms.CachingMachineGetter;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.inject.Inject;
+
+/**
+ * Writes rooms that changed while being reloaded in the background into the database, by
+ * refreshing them again. The refresh is served from the freshly reloaded cache entry.
+ */
+public class RoomRevalidationListener implements CachingMachineGetter.OnRevalidatedListener {
+    @NotNull
+    private final Context mContext;
+
+    @Inject
+    public RoomRevalidationListener(@ForApplication @NotNull Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public void onRevalidated(long roomId) {
+        mContext.startService(RoomRefresher.createForcedIntent(mContext, roomId));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * One clock for every countdown on screen. Rather than ticking at a fixed rate, it wakes up at
+ * the earliest time any listener asked for, so an idle room costs nothing.
+ * <p>
+ * Times are in wall clock milliseconds, like the statuses they are computed from. All methods
+ * must be called on the main thread.
+ */
+@Singleton
+public class CountdownTicker {
+    public interface Listener {
+        /**
+         * @return the wall clock time this listener next needs a tick, or
+         * {@link Long#MAX_VALUE} for never
+         */
+        long onTick(long now);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new ArrayList<Listener>(1);
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+    private long mNextTick = Long.MAX_VALUE;
+
+    @Inject
+    public CountdownTicker() {
+    }
+
+    /**
+     * Adds the listener and ticks it as soon as possible.
+     */
+    public void register(@NotNull Listener listener) {
+        if (!mListeners.contains(listener))
+            mListeners.add(listener);
+        requestTick(System.currentTimeMillis());
+    }
+
+    public void unregister(@NotNull Listener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            mHandler.removeCallbacks(mTick);
+            mNextTick = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Makes sure there is a tick no later than <code>time</code>.
+     */
+    public void requestTick(long time) {
+        if (mListeners.isEmpty() || time >= mNextTick)
+            return;
+        mNextTick = time;
+        mHandler.removeCallbacks(mTick);
+        mHandler.postDelayed(mTick, Math.max(0, time - System.currentTimeMillis()));
+    }
+
+    private void tick() {
+        final long now = System.currentTimeMillis();
+        mNextTick = Long.MAX_VALUE;
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < mListeners.size(); i++) {
+            next = Math.min(next, mListeners.get(i).onTick(now));
+        }
+        // If the clock was changed, this may be early; the listeners will just ask again
+        if (next != Long.MAX_VALUE)
+            requestTick(Math.max(next, now));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.ui;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.os.Build;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.style.TypefaceSpan;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.TextView;
+
+import net.zdremann.wc.model.Machine;
+
+import org.jetbrains.annotations.NotNull;
+
+import air.air.net.zdremann.zsuds.R;
+
+/**
+ * Binds machine rows from text and colors that are created once and reused. Status strings and
+ * colors are loaded up front; number and time remaining labels are cached the first time they
+ * are shown. After that, binding a row allocates nothing, and rows whose values have not changed
+ * are not touched at all.
+ * <p>
+ * The time shown counts down from the reported time remaining as the clock moves on from when it
+ * was reported. {@link #tick(ViewHolder, long)} updates a bound row without going back to the
+ * cursor.
+ * <p>
+ * Not thread safe; bind on the main thread.
+ */
+final class MachineRowBinder {
+    static final long MINUTE = 60 * 1000;
+    private static final Machine.Status[] STATUSES = Machine.Status.values();
+
+    @NotNull
+    private final CharSequence[] mStatusText = new CharSequence[STATUSES.length];
+    @NotNull
+    private final ColorStateList[] mStatusColors = new ColorStateList[STATUSES.length];
+    @NotNull
+    private final CharSequence mUnknownNumber;
+    @NotNull
+    private final String mTimePostfix;
+    @NotNull
+    private final TypefaceSpan mPostfixSpan =
+          (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) ?
+          new TypefaceSpan("sans-serif-thin") :
+          new TypefaceSpan("sans-serif-light");
+    private final SparseArray<CharSequence> mNumbers = new SparseArray<CharSequence>();
+    private final SparseArray<CharSequence> mTimes = new SparseArray<CharSequence>();
+
+    MachineRowBinder(@NotNull Context context) {
+        for (Machine.Status status : STATUSES) {
+            mStatusText[status.ordinal()] = status.toString(context);
+            mStatusColors[status.ordinal()] = status.getColor(context);
+        }
+        mUnknownNumber = context.getText(R.string.machine_number_unknown);
+        mTimePostfix = context.getString(R.string.minutes_remaining_postfix);
+    }
+
+    /**
+     * @param status        the ordinal of the machine's status, as stored in the database
+     * @param timeRemaining the reported time remaining, or a negative number for none
+     * @param lastUpdated   when the time remaining was reported, in wall clock time
+     * @param now           the current wall clock time
+     */
+    void bind(
+          @NotNull ViewHolder vh, int number, int status, long timeRemaining, long lastUpdated,
+          long now) {
+        if (status < 0 || status >= STATUSES.length)
+            status = Machine.Status.UNKNOWN.ordinal();
+
+        if (!vh.mBound || vh.mNumber != number) {
+            vh.number.setText(numberLabel(number));
+            vh.mNumber = number;
+        }
+        if (!vh.mBound || vh.mStatus != status) {
+            vh.status.setText(mStatusText[status]);
+            vh.status.setTextColor(mStatusColors[status]);
+            vh.mStatus = status;
+        }
+
+        vh.mTimeRemaining = timeRemaining;
+        vh.mLastUpdated = lastUpdated;
+        bindTime(vh, !vh.mBound, now);
+        vh.mBound = true;
+    }
+
+    /**
+     * Moves a bound row's time remaining on to <code>now</code>, if its minute has changed.
+     *
+     * @return the wall clock time the row's minute will change next, or {@link Long#MAX_VALUE}
+     * if it never will
+     */
+    long tick(@NotNull ViewHolder vh, long now) {
+        if (!vh.mBound || vh.mTimeRemaining < 0)
+            return Long.MAX_VALUE;
+        bindTime(vh, false, now);
+        return nextChange(vh, now);
+    }
+
+    /**
+     * @return the wall clock time the row's minute will change next, or {@link Long#MAX_VALUE}
+     * if it never will
+     */
+    long nextChange(@NotNull ViewHolder vh, long now) {
+        if (!vh.mBound || vh.mTimeRemaining < 0)
+            return Long.MAX_VALUE;
+        final long minutes = (remaining(vh, now) + MINUTE / 2) / MINUTE;
+        if (minutes == 0)
+            return Long.MAX_VALUE;
+        // The label drops to the next minute once less than minutes - 1/2 remain
+        return vh.mLastUpdated + vh.mTimeRemaining - (minutes * MINUTE - MINUTE / 2) + 1;
+    }
+
+    private static long remaining(@NotNull ViewHolder vh, long now) {
+        final long elapsed = Math.max(0, now - vh.mLastUpdated);
+        return Math.max(0, vh.mTimeRemaining - elapsed);
+    }
+
+    private void bindTime(@NotNull ViewHolder vh, boolean force, long now) {
+        final CharSequence time =
+              vh.mTimeRemaining >= 0 ? timeLabel(remaining(vh, now)) : null;
+        if (force || vh.mTime != time) {
+            if (time != null) {
+                // As spannable text, TextView would copy the label on every bind
+                vh.time.setText(time, TextView.BufferType.NORMAL);
+                vh.time.setVisibility(View.VISIBLE);
+            } else {
+                vh.time.setVisibility(View.GONE);
+            }
+            vh.mTime = time;
+        }
+    }
+
+    @NotNull
+    CharSequence numberLabel(int number) {
+        if (number == -1)
+            return mUnknownNumber;
+        CharSequence label = mNumbers.get(number);
+        if (label == null) {
+            label = String.valueOf(number);
+            mNumbers.put(number, label);
+        }
+        return label;
+    }
+
+    /**
+     * @return the whole minutes remaining, rounded half up, with the postfix in a lighter font
+     */
+    @NotNull
+    CharSequence timeLabel(long timeRemaining) {
+        final int minutes = (int) ((timeRemaining + MINUTE / 2) / MINUTE);
+        CharSequence label = mTimes.get(minutes);
+        if (label == null) {
+            final String timeText = String.valueOf(minutes);
+            final SpannableString spanRange = new SpannableString(timeText + " " + mTimePostfix);
+            spanRange.setSpan(
+                  mPostfixSpan, timeText.length(), spanRange.length(),
+                  Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
+            );
+            // Normal text that is not already a SpannedString gets copied into one
+            label = new SpannedString(spanRange);
+            mTimes.put(minutes, label);
+        }
+        return label;
+    }
+
+    static class ViewHolder {
+        public TextView number;
+        public TextView status;
+        public TextView time;
+        private boolean mBound;
+        private int mNumber;
+        private int mStatus;
+        private CharSequence mTime;
+        private long mTimeRemaining;
+        private long mLastUpdated;
+
+        @NotNull
+        public static ViewHolder from(@NotNull View v) {
+            final ViewHolder vh = new ViewHolder();
+            vh.number = (TextView) v.findViewById(R.id.number);
+            vh.status = (TextView) v.findViewById(R.id.status);
+            vh.time = (TextView) v.findViewById(R.id.time_remaining);
+
+            return vh;
+        }
+    }
+}
@@ -180,7 +180,7 @@ public class RoomChooserActivity extends BaseActivity implements RoomChooserList
             if (lastKnownLocation == null)
                 return;
             MachineGrouping candidate = mLocationsProxy.getClosestLocation(lastKnownLocation);
-            if (candidate != null && lastKnownLocation.distanceTo(candidate.location) < 8047) {
+            if (candidate != null && lastKnownLocation.distanceTo(candidate.getLocation()) < 8047) {
                 Toast.makeText(this, "Guessing Location: " + candidate.name, Toast.LENGTH_SHORT)
                       .show();
                 onRoomChosen(candidate);
@@ -196,7 +196,7 @@ public class RoomChooserActivity extends BaseActivity implements RoomChooserList
 
             MachineGrouping college = newRoot;
             while(college.type != Type.SCHOOL) {
-                college = college.parent;
+                college = college.getParent();
                 assert college != null;
             }
 
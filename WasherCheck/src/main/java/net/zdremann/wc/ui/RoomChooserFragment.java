@@ -87,11 +87,11 @@ public class RoomChooserFragment extends BaseListFragment {
         public int getCount() {
             if (mRoot == null)
                 return 0;
-            return mRoot.children.size();
+            return mRoot.getChildren().size();
         }
 
         public Object getItem(int position) {
-            final MachineGrouping grouping = mRoot.children.get(position);
+            final MachineGrouping grouping = mRoot.getChildren().get(position);
             assert grouping != null;
             return grouping;
         }
@@ -26,10 +26,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -39,9 +37,6 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v4.widget.CursorAdapter;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.style.TypefaceSpan;
 import android.view.ContextMenu;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -51,7 +46,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.gcm.GoogleCloudMessaging;
@@ -60,10 +54,9 @@ import net.zdremann.ForActivity;
 import net.zdremann.util.AsyncTaskResult;
 import net.zdremann.util.HttpPost;
 import net.zdremann.wc.GcmRegistrationId;
-import net.zdremann.wc.io.rooms.TmpRoomLoader;
 import net.zdremann.wc.model.Machine;
 import net.zdremann.wc.service.MachinesLoadedBroadcastReceiver;
-import net.zdremann.wc.service.RoomRefresher;
+import net.zdremann.wc.service.RefreshScheduler;
 import net.zdremann.wc.ui.widget.SimpleSectionedListAdapter;
 
 import org.jetbrains.annotations.NotNull;
@@ -75,16 +68,13 @@ import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import javax.inject.Inject;
 
 import air.air.net.zdremann.zsuds.R;
 
-import static java.util.concurrent.TimeUnit.*;
 import static net.zdremann.wc.provider.WasherCheckContract.*;
 
 public class RoomViewFragment extends BaseListFragment
@@ -94,20 +84,30 @@ public class RoomViewFragment extends BaseListFragment
     private static final int MSG_REFRESH_SUCCESS = 0x000;
     private static final int MSG_REFRESH_FAILURE = 0x001;
     private static final int MSG_REFRESH_START = 0x002;
-    private static final long MINUTE = 60 * 1000;
 
-    private final Runnable mRefreshRunnable = new Runnable() {
+    private final RefreshScheduler.Listener mRefreshListener = new RefreshScheduler.Listener() {
         @Override
-        public void run() {
+        public void onRefreshStarted(long roomId) {
             mHandler.sendEmptyMessage(MSG_REFRESH_START);
-            mActivityContext.startService(RoomRefresher.createIntent(mActivityContext, mRoomId));
+        }
+    };
+    private final CountdownTicker.Listener mTickListener = new CountdownTicker.Listener() {
+        @Override
+        public long onTick(long now) {
+            final View view = getView();
+            if (view == null || mRoomViewAdapter == null)
+                return Long.MAX_VALUE;
+            return mRoomViewAdapter.tick(getListView(), now);
         }
     };
     private final BroadcastReceiver mRefreshCompleteReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            boolean successful = intent.getBooleanExtra(
-                  MachinesLoadedBroadcastReceiver.EXTRA_SUCCESSFUL_LOAD, false
+            if (!MachinesLoadedBroadcastReceiver.containsRoom(
+                  intent, MachinesLoadedBroadcastReceiver.EXTRA_ROOM_IDS, mRoomId))
+                return;
+            boolean successful = MachinesLoadedBroadcastReceiver.containsRoom(
+                  intent, MachinesLoadedBroadcastReceiver.EXTRA_SUCCEEDED_ROOM_IDS, mRoomId
             );
             mHandler.sendEmptyMessage((successful) ? MSG_REFRESH_SUCCESS : MSG_REFRESH_FAILURE);
         }
@@ -126,6 +126,12 @@ public class RoomViewFragment extends BaseListFragment
     @GcmRegistrationId
     Future<String> mGcmRegistrationId;
 
+    @Inject
+    RefreshScheduler mRefreshScheduler;
+
+    @Inject
+    CountdownTicker mCountdownTicker;
+
     private long mRoomId;
     private boolean mIsLoading = false;
     private MenuItem mRefreshItem;
@@ -146,7 +152,6 @@ public class RoomViewFragment extends BaseListFragment
             }
         }
     };
-    private ScheduledThreadPoolExecutor mRefreshPool;
 
     protected void setIsLoading(final boolean isLoading) {
         mIsLoading = isLoading;
@@ -161,7 +166,7 @@ public class RoomViewFragment extends BaseListFragment
 
     @Override
     public Loader<Cursor> onCreateLoader(final int id, final Bundle args) {
-        return new TmpRoomLoader(mActivityContext, mRoomId);
+        return new SectionedRoomLoader(mActivityContext, mRoomId);
     }
 
     @Override
@@ -171,32 +176,12 @@ public class RoomViewFragment extends BaseListFragment
 
         setEmptyText(getText(R.string.machines_empty));
 
-        final ArrayList<SimpleSectionedListAdapter.Section> sections =
-              new ArrayList<SimpleSectionedListAdapter.Section>(Machine.Type.values().length);
-
         if (cursor != null) {
-            cursor.moveToFirst();
-            Machine.Type lastType = null;
-
-            int idx_type = cursor.getColumnIndex(MachineStatus.MACHINE_TYPE);
-            while (!cursor.isAfterLast()) {
-                Machine.Type currentType = Machine.Type.fromInt(cursor.getInt(idx_type));
-                if (currentType != lastType)
-                    sections.add(
-                          new SimpleSectionedListAdapter.Section(
-                                cursor.getPosition(),
-                                currentType.toString(mActivityContext)
-                          )
-                    );
-
-                lastType = currentType;
-                cursor.moveToNext();
-            }
-
+            final SectionedRoomLoader.SectionedCursor sectioned =
+                  (SectionedRoomLoader.SectionedCursor) cursor;
+            mRefreshScheduler.onRoomLoaded(mRoomId, sectioned.getRefreshSummary());
             mRoomViewAdapter.changeCursor(cursor);
-            SimpleSectionedListAdapter.Section[] dummy =
-                  new SimpleSectionedListAdapter.Section[sections.size()];
-            mAdapter.setSections(sections.toArray(dummy));
+            mAdapter.setSections(sectioned.getSections());
         }
     }
 
@@ -225,7 +210,7 @@ public class RoomViewFragment extends BaseListFragment
         super.onActivityCreated(savedInstanceState);
         getComponent().injectFragment(this);
 
-        mRoomViewAdapter = new MyRoomViewAdapter(mActivityContext);
+        mRoomViewAdapter = new MyRoomViewAdapter(mActivityContext, mCountdownTicker);
         mAdapter = new SimpleSectionedListAdapter(
               mActivityContext, R.layout.item_machine_header, mRoomViewAdapter
         );
@@ -247,9 +232,8 @@ public class RoomViewFragment extends BaseListFragment
     @Override
     public void onResume() {
         super.onResume();
-        //mRefreshRunnable.run();
-        mRefreshPool = new ScheduledThreadPoolExecutor(1);
-        mRefreshPool.scheduleWithFixedDelay(mRefreshRunnable, 0, 5 * 60, SECONDS);
+        mRefreshScheduler.start(mRoomId, mRefreshListener);
+        mCountdownTicker.register(mTickListener);
         mActivityContext.registerReceiver(
               mRefreshCompleteReceiver, new IntentFilter(
               MachinesLoadedBroadcastReceiver.BROADCAST_TAG
@@ -294,7 +278,8 @@ public class RoomViewFragment extends BaseListFragment
     @Override
     public void onPause() {
         super.onPause();
-        mRefreshPool.shutdown();
+        mRefreshScheduler.stop(mRoomId, mRefreshListener);
+        mCountdownTicker.unregister(mTickListener);
         mActivityContext.unregisterReceiver(mRefreshCompleteReceiver);
     }
 
@@ -392,7 +377,7 @@ public class RoomViewFragment extends BaseListFragment
     public boolean onOptionsItemSelected(final MenuItem item) {
         switch (item.getItemId()) {
         case R.id.action_refresh:
-            mRefreshPool.execute(mRefreshRunnable);
+            mRefreshScheduler.refreshNow(mRoomId);
             return true;
         default:
             return super.onOptionsItemSelected(item);
@@ -402,11 +387,8 @@ public class RoomViewFragment extends BaseListFragment
     static class MyRoomViewAdapter extends CursorAdapter {
 
         private final LayoutInflater mLayoutInflater;
-        private final TypefaceSpan mPostfixSpan = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) ?
-                                                  new TypefaceSpan(
-                                                        "sans-serif-thin"
-                                                  ) :
-                                                  new TypefaceSpan("sans-serif-light");
+        private final MachineRowBinder mBinder;
+        private final CountdownTicker mTicker;
         private int idx_id;
         private int idx_room_id;
         private int idx_machine_id;
@@ -414,10 +396,13 @@ public class RoomViewFragment extends BaseListFragment
         private int idx_type;
         private int idx_status;
         private int idx_time_remaining;
+        private int idx_last_updated;
 
-        private MyRoomViewAdapter(@NotNull Context context) {
+        private MyRoomViewAdapter(@NotNull Context context, @NotNull CountdownTicker ticker) {
             super(context, null, false);
             mLayoutInflater = (LayoutInflater.from(context));
+            mBinder = new MachineRowBinder(context);
+            mTicker = ticker;
         }
 
         @Nullable
@@ -435,6 +420,7 @@ public class RoomViewFragment extends BaseListFragment
                 idx_time_remaining = newCursor.getColumnIndex(
                       MachineStatus.REPORTED_TIME_REMAINING
                 );
+                idx_last_updated = newCursor.getColumnIndex(MachineStatus.LAST_UPDATED);
             }
             return cursor;
         }
@@ -443,55 +429,38 @@ public class RoomViewFragment extends BaseListFragment
         public View newView(Context context, Cursor cursor, ViewGroup parent) {
             View view = mLayoutInflater.inflate(R.layout.item_machine_row, parent, false);
             assert view != null;
-            view.setTag(ViewHolder.from(view));
+            view.setTag(MachineRowBinder.ViewHolder.from(view));
             return view;
         }
 
         @Override
         public void bindView(View view, Context context, Cursor cursor) {
-            ViewHolder vh = (ViewHolder) view.getTag();
-            Resources res = context.getResources();
-
-            int number = cursor.getInt(idx_number);
-            Machine.Status status = Machine.Status.fromInt(cursor.getInt(idx_status));
-            long timeRemaining = cursor.getLong(idx_time_remaining);
-
-            if (number == -1)
-                vh.number.setText(R.string.machine_number_unknown);
-            else
-                vh.number.setText(String.valueOf(number));
-            vh.status.setText(status.toString(context));
-            vh.status.setTextColor(status.getColor(context));
-
-            if (timeRemaining >= 0) {
-                String timeText = String
-                      .format("%.0f", (double) timeRemaining / MINUTE);
-                String timePostfix = res.getString(R.string.minutes_remaining_postfix);
-
-                Spannable spanRange = new SpannableString(timeText + " " + timePostfix);
-                spanRange.setSpan(mPostfixSpan, timeText.length(), spanRange.length(), 0);
-                vh.time.setText(spanRange, TextView.BufferType.SPANNABLE);
-
-                vh.time.setVisibility(View.VISIBLE);
-            } else {
-                vh.time.setVisibility(View.GONE);
-            }
+            final MachineRowBinder.ViewHolder vh = (MachineRowBinder.ViewHolder) view.getTag();
+            final long now = System.currentTimeMillis();
+            final long timeRemaining = cursor.isNull(idx_time_remaining)
+                                       ? Machine.NO_TIME_REMAINING
+                                       : cursor.getLong(idx_time_remaining);
+            mBinder.bind(
+                  vh, cursor.getInt(idx_number), cursor.getInt(idx_status), timeRemaining,
+                  cursor.getLong(idx_last_updated), now
+            );
+            mTicker.requestTick(mBinder.nextChange(vh, now));
         }
 
-        private static class ViewHolder {
-            public TextView number;
-            public TextView status;
-            public TextView time;
-
-            @NotNull
-            public static ViewHolder from(@NotNull View v) {
-                final ViewHolder vh = new ViewHolder();
-                vh.number = (TextView) v.findViewById(R.id.number);
-                vh.status = (TextView) v.findViewById(R.id.status);
-                vh.time = (TextView) v.findViewById(R.id.time_remaining);
-
-                return vh;
+        /**
+         * Counts down the rows on screen. Rows scrolled off screen are brought up to date when
+         * they are bound again.
+         *
+         * @return when the next visible row's minute changes
+         */
+        long tick(@NotNull AbsListView list, long now) {
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < list.getChildCount(); i++) {
+                final Object tag = list.getChildAt(i).getTag();
+                if (tag instanceof MachineRowBinder.ViewHolder)
+                    next = Math.min(next, mBinder.tick((MachineRowBinder.ViewHolder) tag, now));
             }
+            return next;
         }
     }
 }
@@ -48,6 +48,11 @@ import net.zdremann.wc.GcmRegistrationId;
 import net.zdremann.wc.Main;
 import net.zdremann.wc.WcApplication;
 import net.zdremann.wc.io.locations.LocationsProxy;
+import net.zdremann.wc.io.rooms.CachingMachineGetter;
+import net.zdremann.wc.io.rooms.EsudsMachineGetter;
+import net.zdremann.wc.io.rooms.FallbackMachineGetter;
+import net.zdremann.wc.io.rooms.HealthTrackingMachineGetter;
+import net.zdremann.wc.io.rooms.MachineGetter;
 import net.zdremann.wc.model.MachineGrouping;
 import net.zdremann.wc.service.ClearCompletedNotificationsService;
 
@@ -63,6 +68,8 @@ import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
+import dagger.Lazy;
+
 import air.air.net.zdremann.zsuds.BackupAgent;
 import air.air.net.zdremann.zsuds.BuildConfig;
 import air.air.net.zdremann.zsuds.R;
@@ -90,6 +97,9 @@ public class RoomViewer extends BaseActivity {
     @Inject
     Tracker mTracker;
 
+    @Inject
+    Lazy<MachineGetter> mMachineGetter;
+
     private long mRoomId;
 
     @Override
@@ -111,6 +121,17 @@ public class RoomViewer extends BaseActivity {
         fakeIoMenuItem.setVisible(BuildConfig.DEBUG);
         fakeIoMenuItem.setChecked(mPreferences.getBoolean("net.zdremann.wc.fake_io", false));
 
+        MenuItem rowScannerMenuItem = menu.findItem(R.id.action_esuds_row_scanner);
+        assert rowScannerMenuItem != null;
+        rowScannerMenuItem.setVisible(BuildConfig.DEBUG);
+        rowScannerMenuItem.setChecked(
+              mPreferences.getBoolean(EsudsMachineGetter.PREF_USE_ROW_SCANNER, false)
+        );
+
+        MenuItem backendHealthMenuItem = menu.findItem(R.id.action_backend_health);
+        assert backendHealthMenuItem != null;
+        backendHealthMenuItem.setVisible(BuildConfig.DEBUG);
+
         MenuItem removePendingNotifications = menu.findItem(R.id.action_remove_notifications);
         assert removePendingNotifications != null;
         removePendingNotifications.setVisible(mGoogleCloudMessaging != null);
@@ -191,11 +212,41 @@ public class RoomViewer extends BaseActivity {
             mPreferences.edit().putBoolean("net.zdremann.wc.fake_io", useFakeIo).commit();
             item.setChecked(useFakeIo);
             return true;
+        case R.id.action_esuds_row_scanner:
+            boolean useRowScanner = !item.isChecked();
+            mPreferences.edit()
+                  .putBoolean(EsudsMachineGetter.PREF_USE_ROW_SCANNER, useRowScanner).commit();
+            item.setChecked(useRowScanner);
+            return true;
+        case R.id.action_backend_health:
+            showBackendHealth();
+            return true;
         default:
             return false;
         }
     }
 
+    private void showBackendHealth() {
+        MachineGetter machineGetter = mMachineGetter.get();
+        final StringBuilder message = new StringBuilder();
+        if (machineGetter instanceof CachingMachineGetter) {
+            final CachingMachineGetter cache = (CachingMachineGetter) machineGetter;
+            message.append(cache.getStats());
+            machineGetter = cache.getDelegate();
+        }
+        if (machineGetter instanceof FallbackMachineGetter) {
+            for (HealthTrackingMachineGetter.Health health :
+                  ((FallbackMachineGetter) machineGetter).getHealth()) {
+                if (message.length() > 0)
+                    message.append('\n');
+                message.append(health);
+            }
+        }
+        if (message.length() == 0)
+            message.append("No backend health tracked for ").append(machineGetter);
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         switch (requestCode) {
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import net.zdremann.wc.io.rooms.TmpRoomLoader;
+import net.zdremann.wc.model.Machine;
+import net.zdremann.wc.service.RefreshScheduler;
+import net.zdremann.wc.ui.widget.SimpleSectionedListAdapter.Section;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import static net.zdremann.wc.provider.WasherCheckContract.MachineStatus;
+
+/**
+ * Loads a room's machines and, still on the loader's thread, finds where each machine type's
+ * section starts and what the refresh schedule needs to know. The UI thread only has to swap
+ * the result in.
+ */
+class SectionedRoomLoader extends TmpRoomLoader {
+    public SectionedRoomLoader(Context context, long roomId) {
+        super(context, roomId);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        final Cursor cursor = super.loadInBackground();
+        if (cursor == null)
+            return null;
+        try {
+            return new SectionedCursor(
+                  cursor, sections(cursor), RefreshScheduler.summarize(cursor)
+            );
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    @NotNull
+    private Section[] sections(@NotNull Cursor cursor) {
+        Section[] sections = new Section[Machine.Type.values().length];
+        int count = 0;
+
+        // Rows are sorted by type, so a section starts wherever the type changes
+        final int idxType = cursor.getColumnIndexOrThrow(MachineStatus.MACHINE_TYPE);
+        Machine.Type lastType = null;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            final Machine.Type type = Machine.Type.fromInt(cursor.getInt(idxType));
+            if (type != lastType) {
+                if (count == sections.length)
+                    sections = Arrays.copyOf(sections, count * 2);
+                sections[count++] = new Section(cursor.getPosition(), type.toString(getContext()));
+            }
+            lastType = type;
+        }
+        cursor.moveToPosition(-1);
+        return Arrays.copyOf(sections, count);
+    }
+
+    /**
+     * A room's machines, with the section headers and refresh summary worked out alongside
+     */
+    static class SectionedCursor extends CursorWrapper {
+        @NotNull
+        private final Section[] mSections;
+        @NotNull
+        private final RefreshScheduler.RoomSummary mSummary;
+
+        SectionedCursor(
+              @NotNull Cursor cursor, @NotNull Section[] sections,
+              @NotNull RefreshScheduler.RoomSummary summary) {
+            super(cursor);
+            mSections = sections;
+            mSummary = summary;
+        }
+
+        @NotNull
+        public Section[] getSections() {
+            return mSections;
+        }
+
+        @NotNull
+        public RefreshScheduler.RoomSummary getRefreshSummary() {
+            return mSummary;
+        }
+    }
+}
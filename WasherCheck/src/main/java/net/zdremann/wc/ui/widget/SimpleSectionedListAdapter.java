@@ -24,7 +24,6 @@ package net.zdremann.wc.ui.widget;
 
 import android.content.Context;
 import android.database.DataSetObserver;
-import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -37,11 +36,27 @@ import java.util.Arrays;
 import java.util.Comparator;
 
 public class SimpleSectionedListAdapter extends BaseAdapter {
+    private static final Section[] NO_SECTIONS = new Section[0];
+    private static final Comparator<Section> BY_FIRST_POSITION = new Comparator<Section>() {
+        @Override
+        public int compare(Section o, Section o1) {
+            return (o.firstPosition == o1.firstPosition)
+                   ? 0
+                   : ((o.firstPosition < o1.firstPosition) ? -1 : 1);
+        }
+    };
+
     private boolean mValid = true;
     private int mSectionResourceId;
     private LayoutInflater mLayoutInflater;
     private ListAdapter mBaseAdapter;
-    private SparseArray<Section> mSections = new SparseArray<Section>();
+    /**
+     * Sorted by position. The positions are copied out into parallel arrays, so mapping a
+     * position is a binary search that allocates nothing.
+     */
+    private Section[] mSections = NO_SECTIONS;
+    private int[] mFirstPositions = new int[0];
+    private int[] mSectionedPositions = new int[0];
 
     public static class Section {
         int firstPosition;
@@ -83,91 +98,95 @@ public class SimpleSectionedListAdapter extends BaseAdapter {
     }
 
     public void setSections(Section[] sections) {
-        mSections.clear();
-
-        Arrays.sort(
-              sections, new Comparator<Section>() {
-            @Override
-            public int compare(Section o, Section o1) {
-                return (o.firstPosition == o1.firstPosition)
-                       ? 0
-                       : ((o.firstPosition < o1.firstPosition) ? -1 : 1);
-            }
-        }
-        );
+        sections = sections.clone();
+        Arrays.sort(sections, BY_FIRST_POSITION);
 
+        final int[] firstPositions = new int[sections.length];
+        final int[] sectionedPositions = new int[sections.length];
         int offset = 0; // offset positions for the headers we're adding
         for (Section section : sections) {
             section.sectionedPosition = section.firstPosition + offset;
-            mSections.append(section.sectionedPosition, section);
+            firstPositions[offset] = section.firstPosition;
+            sectionedPositions[offset] = section.sectionedPosition;
             ++offset;
         }
+        mSections = sections;
+        mFirstPositions = firstPositions;
+        mSectionedPositions = sectionedPositions;
 
         notifyDataSetChanged();
     }
 
     public int positionToSectionedPosition(int position) {
-        int offset = 0;
-        for (int i = 0; i < mSections.size(); i++) {
-            if (mSections.valueAt(i).firstPosition > position) {
-                break;
-            }
-            ++offset;
-        }
-        return position + offset;
+        return position + countAtOrBefore(mFirstPositions, position);
     }
 
     public int sectionedPositionToPosition(int sectionedPosition) {
-        if (isSectionHeaderPosition(sectionedPosition)) {
+        final int[] sectionedPositions = mSectionedPositions;
+        if (Arrays.binarySearch(sectionedPositions, sectionedPosition) >= 0) {
             return ListView.INVALID_POSITION;
         }
 
-        int offset = 0;
-        for (int i = 0; i < mSections.size(); i++) {
-            if (mSections.valueAt(i).sectionedPosition > sectionedPosition) {
-                break;
-            }
-            --offset;
-        }
-        return sectionedPosition + offset;
+        return sectionedPosition - countAtOrBefore(sectionedPositions, sectionedPosition);
     }
 
     public boolean isSectionHeaderPosition(int position) {
-        return mSections.get(position) != null;
+        return Arrays.binarySearch(mSectionedPositions, position) >= 0;
+    }
+
+    /**
+     * @return how many of the sorted <code>values</code> are less than or equal to
+     * <code>value</code>
+     */
+    private static int countAtOrBefore(int[] values, int value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (values[mid] <= value)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
     }
 
     @Override
     public int getCount() {
-        return (mValid ? mBaseAdapter.getCount() + mSections.size() : 0);
+        return (mValid ? mBaseAdapter.getCount() + mSections.length : 0);
     }
 
     @Override
     public Object getItem(int position) {
-        return isSectionHeaderPosition(position)
-               ? mSections.get(position)
-               : mBaseAdapter.getItem(sectionedPositionToPosition(position));
+        final int section = Arrays.binarySearch(mSectionedPositions, position);
+        return section >= 0
+               ? mSections[section]
+               : mBaseAdapter.getItem(position - (-section - 1));
     }
 
     @Override
     public long getItemId(int position) {
-        return isSectionHeaderPosition(position)
-               ? Integer.MAX_VALUE - mSections.indexOfKey(position)
-               : mBaseAdapter.getItemId(sectionedPositionToPosition(position));
+        final int section = Arrays.binarySearch(mSectionedPositions, position);
+        return section >= 0
+               ? Integer.MAX_VALUE - section
+               : mBaseAdapter.getItemId(position - (-section - 1));
     }
 
     @Override
     public int getItemViewType(int position) {
-        return isSectionHeaderPosition(position)
+        final int section = Arrays.binarySearch(mSectionedPositions, position);
+        return section >= 0
                ? getViewTypeCount() - 1
-               : mBaseAdapter.getItemViewType(position);
+               : mBaseAdapter.getItemViewType(position - (-section - 1));
     }
 
     @Override
     public boolean isEnabled(int position) {
+        final int section = Arrays.binarySearch(mSectionedPositions, position);
         //noinspection SimplifiableConditionalExpression
-        return isSectionHeaderPosition(position)
+        return section >= 0
                ? false
-               : mBaseAdapter.isEnabled(sectionedPositionToPosition(position));
+               : mBaseAdapter.isEnabled(position - (-section - 1));
     }
 
     @Override
@@ -192,15 +211,17 @@ public class SimpleSectionedListAdapter extends BaseAdapter {
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-        if (isSectionHeaderPosition(position)) {
+        final int section = Arrays.binarySearch(mSectionedPositions, position);
+        if (section >= 0) {
             TextView view = (TextView) convertView;
             if (view == null) {
                 view = (TextView) mLayoutInflater.inflate(mSectionResourceId, parent, false);
             }
-            view.setText(mSections.get(position).title);
+            view.setText(mSections[section].title);
             return view;
         } else {
-            return mBaseAdapter.getView(sectionedPositionToPosition(position), convertView, parent);
+            // Not a header, so the insertion point counts the headers above it
+            return mBaseAdapter.getView(position - (-section - 1), convertView, parent);
         }
     }
 }
@@ -8,6 +8,7 @@ import net.zdremann.wc.io.rooms.RoomLoaderModule
 import net.zdremann.wc.provider.WasherCheckProvider
 import net.zdremann.wc.service.ClearCompletedNotificationsService
 import net.zdremann.wc.service.GcmBroadcastService
+import net.zdremann.wc.service.RefreshModule
 import net.zdremann.wc.service.RoomRefresher
 import net.zdremann.wc.ui.ActivityModule
 import javax.inject.Singleton
@@ -16,7 +17,8 @@ import javax.inject.Singleton
         ApplicationModule::class,
         ContextModule::class,
         LocationsProxyModule::class,
-        RoomLoaderModule::class))
+        RoomLoaderModule::class,
+        RefreshModule::class))
 @Singleton
 interface ApplicationComponent {
     fun inject(application: WcApplication)
@@ -24,7 +24,10 @@ package net.zdremann.wc.io.rooms;
 
 import android.os.Build;
 
+import net.zdremann.wc.service.RoomRevalidationListener;
+
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 import javax.inject.Singleton;
 
@@ -36,11 +39,25 @@ public class RoomLoaderModule {
     @Provides
     @Singleton
     MachineGetter provideMachineGetter(EsudsMachineGetter esudsMachineGetter,
-          GaeMachineGetter gaeMachineGetter) {
-        return new FallbackMachineGetter(
-              Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ?
-              Arrays.asList(gaeMachineGetter, esudsMachineGetter) :
-              Arrays.asList(esudsMachineGetter)
+          GaeMachineGetter gaeMachineGetter, RoomRevalidationListener revalidationListener) {
+        final ExecutorService executor = RoomLoaderConfig.newExecutor();
+        final CachingMachineGetter cache = new CachingMachineGetter(
+              new FallbackMachineGetter(
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ?
+                    Arrays.asList(
+                          tracked("gae", gaeMachineGetter), tracked("esuds", esudsMachineGetter)
+                    ) :
+                    Arrays.asList(tracked("esuds", esudsMachineGetter)),
+                    executor, RoomLoaderConfig.DEFAULT_HEDGE_DELAY_MILLIS
+              ),
+              executor, RoomLoaderConfig.CACHE_TTL_MILLIS, RoomLoaderConfig.CACHE_STALE_MILLIS,
+              RoomLoaderConfig.CACHE_MAX_ROOMS
         );
+        cache.setOnRevalidatedListener(revalidationListener);
+        return cache;
+    }
+
+    private static MachineGetter tracked(String name, MachineGetter getter) {
+        return new HealthTrackingMachineGetter(name, getter);
     }
 }
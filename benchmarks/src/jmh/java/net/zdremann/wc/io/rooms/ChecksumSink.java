@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+/**
+ * Folds every value of every machine into one number, so none of the work can be skipped, and
+ * two parsers can be checked against each other
+ */
+final class ChecksumSink implements MachineSink {
+    int mRows;
+    long mChecksum;
+
+    @Override
+    public void add(int type, int number, long esudsId, int status, long timeRemaining) {
+        mRows++;
+        mChecksum = 31 * mChecksum + type;
+        mChecksum = 31 * mChecksum + number;
+        mChecksum = 31 * mChecksum + esudsId;
+        mChecksum = 31 * mChecksum + status;
+        mChecksum = 31 * mChecksum + timeRemaining;
+    }
+}
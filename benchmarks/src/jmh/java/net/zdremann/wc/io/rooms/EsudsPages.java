@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * eSuds room pages for the benchmarks to read. A page is either one of the fixtures in
+ * <code>resources/esuds</code>, by name, or <code>synthetic-&lt;rows&gt;</code>, which wraps the
+ * given number of generated machine rows in the markup of <code>room_small</code>.
+ */
+final class EsudsPages {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String SYNTHETIC = "synthetic-";
+    private static final String FIRST_ROW = "<tr class=\"even\">";
+    private static final String TABLE_END = "</table>";
+
+    private static final String[] TYPES = {"Washer", "Front Load Washer", "Dryer", "Stacked Dryer"};
+    private static final String[] STATUSES = {"Available", "In Use", "Cycle Complete", "Unavailable"};
+    private static final String[] COLORS = {"#339933", "#CC0000", "#FF9900", "#666666"};
+
+    private EsudsPages() {
+    }
+
+    @NotNull
+    static String load(@NotNull String page) throws IOException {
+        if (page.startsWith(SYNTHETIC))
+            return synthetic(Integer.parseInt(page.substring(SYNTHETIC.length())));
+        return fixture(page);
+    }
+
+    /**
+     * The number of machine rows in <code>page</code>, for checking that a parser read all of them
+     */
+    static int rowCount(@NotNull String page) {
+        int count = 0;
+        int index = 0;
+        while ((index = page.indexOf("<tr class=\"", index)) != -1) {
+            index += "<tr class=\"".length();
+            if (page.startsWith("even\"", index) || page.startsWith("odd\"", index))
+                count++;
+        }
+        return count;
+    }
+
+    @NotNull
+    static String fixture(@NotNull String name) throws IOException {
+        final InputStream in = EsudsPages.class.getResourceAsStream("/esuds/" + name + ".html");
+        if (in == null)
+            throw new IOException("No fixture named " + name);
+
+        final Reader reader = new InputStreamReader(in, ISO_8859_1);
+        try {
+            final StringBuilder builder = new StringBuilder(16 * 1024);
+            final char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1)
+                builder.append(buffer, 0, read);
+            return builder.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Generates <code>rows</code> machines with a repeating mix of types, statuses and times, so
+     * pages of every size exercise the same cases.
+     */
+    @NotNull
+    static String synthetic(int rows) throws IOException {
+        final String template = fixture("room_small");
+        final int rowsStart = template.indexOf(FIRST_ROW);
+        final int rowsEnd = template.indexOf(TABLE_END);
+
+        final StringBuilder builder = new StringBuilder(template.length() + rows * 256);
+        builder.append(template, 0, rowsStart);
+        for (int i = 0; i < rows; i++) {
+            final int status = (i * 7) % STATUSES.length;
+            builder.append("<tr class=\"").append(i % 2 == 0 ? "even" : "odd").append("\">\n")
+                  .append("<td><input type=\"checkbox\" name=\"machineId\" value=\"")
+                  .append(100000 + i).append("\" /></td>\n")
+                  .append("<td>").append(i + 1).append("</td>\n")
+                  .append("<td>").append(TYPES[i % TYPES.length]).append("</td>\n")
+                  .append("<td><font color=\"").append(COLORS[status]).append("\">")
+                  .append(STATUSES[status]).append("</font></td>\n")
+                  .append("<td>");
+            if (status == 1)
+                builder.append(1 + i % 60).append(i % 3 == 0 ? ".5" : "");
+            else
+                builder.append("&nbsp;");
+            builder.append("</td>\n</tr>\n");
+        }
+        builder.append(template, rowsEnd, template.length());
+        return builder.toString();
+    }
+}
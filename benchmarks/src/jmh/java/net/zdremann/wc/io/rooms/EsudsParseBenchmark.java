@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import net.zdremann.wc.io.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the steps of loading a room from eSuds, after the bytes have arrived: sanitizing the
+ * page with {@link EsudsHtmlFilterReader}, reading the machine rows with {@link EsudsRoomReader},
+ * and both together the way <code>EsudsMachineGetter</code> streams them. {@link #scan()} reads
+ * the same bytes with {@link EsudsRowScanner} instead, and setup checks that both ways read the
+ * same machines.
+ * <p>
+ * {@link #parse()} creates its parser through {@link XmlPullParserFactory} every time, the way
+ * the app used to, and {@link #parsePooled()} takes one from an {@link XmlPullParserPool}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EsudsParseBenchmark {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    @Param({
+          "room_small", "room_large",
+          "synthetic-10", "synthetic-100", "synthetic-1000", "synthetic-10000"
+    })
+    public String page;
+
+    private final EsudsRoomReader mReader = new EsudsRoomReader(Logger.NONE);
+    private final XmlPullParserPool mParsers = new XmlPullParserPool();
+    private final char[] mBuffer = new char[8 * 1024];
+    private String mRaw;
+    private byte[] mRawBytes;
+    private String mSanitized;
+
+    @Setup
+    public void setUp() throws IOException, XmlPullParserException {
+        mRaw = EsudsPages.load(page);
+        mRawBytes = mRaw.getBytes(ISO_8859_1);
+
+        final StringBuilder sanitized = new StringBuilder(mRaw.length());
+        final Reader reader = new EsudsHtmlFilterReader(new StringReader(mRaw));
+        int read;
+        while ((read = reader.read(mBuffer, 0, mBuffer.length)) != -1)
+            sanitized.append(mBuffer, 0, read);
+        mSanitized = sanitized.toString();
+
+        final ChecksumSink sink = new ChecksumSink();
+        mReader.readMachines(newParser(new StringReader(mSanitized)), sink);
+        if (sink.mRows != EsudsPages.rowCount(mRaw))
+            throw new IllegalStateException(
+                  "Read " + sink.mRows + " of " + EsudsPages.rowCount(mRaw) + " rows of " + page
+            );
+
+        final ChecksumSink scanned = new ChecksumSink();
+        new EsudsRowScanner(new ByteArrayInputStream(mRawBytes), Logger.NONE).readMachines(scanned);
+        if (scanned.mRows != sink.mRows || scanned.mChecksum != sink.mChecksum)
+            throw new IllegalStateException("The scanner and parser disagree on " + page);
+    }
+
+    @Benchmark
+    public long sanitize() throws IOException {
+        final Reader reader = new EsudsHtmlFilterReader(new StringReader(mRaw));
+        long total = 0;
+        int read;
+        while ((read = reader.read(mBuffer, 0, mBuffer.length)) != -1)
+            total += read;
+        return total;
+    }
+
+    @Benchmark
+    public long parse() throws IOException, XmlPullParserException {
+        final ChecksumSink sink = new ChecksumSink();
+        mReader.readMachines(newParser(new StringReader(mSanitized)), sink);
+        return sink.mChecksum;
+    }
+
+    @Benchmark
+    public long parsePooled() throws IOException, XmlPullParserException {
+        final ChecksumSink sink = new ChecksumSink();
+        final XmlPullParser parser = mParsers.acquire(new StringReader(mSanitized));
+        try {
+            mReader.readMachines(parser, sink);
+        } finally {
+            mParsers.release(parser);
+        }
+        return sink.mChecksum;
+    }
+
+    /**
+     * Starts from the page's bytes, like {@link #scan()}
+     */
+    @Benchmark
+    public long sanitizeAndParse() throws IOException, XmlPullParserException {
+        final ChecksumSink sink = new ChecksumSink();
+        final Reader reader = new EsudsHtmlFilterReader(
+              new InputStreamReader(new ByteArrayInputStream(mRawBytes), ISO_8859_1)
+        );
+        mReader.readMachines(newParser(reader), sink);
+        return sink.mChecksum;
+    }
+
+    @Benchmark
+    public long scan() throws IOException {
+        final ChecksumSink sink = new ChecksumSink();
+        new EsudsRowScanner(new ByteArrayInputStream(mRawBytes), Logger.NONE).readMachines(sink);
+        return sink.mChecksum;
+    }
+
+    private static XmlPullParser newParser(Reader reader) throws XmlPullParserException {
+        final XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(reader);
+        return parser;
+    }
+}
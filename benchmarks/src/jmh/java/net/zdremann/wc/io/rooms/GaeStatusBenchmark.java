@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import com.google.gson.stream.JsonReader;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link GaeStatusDecoder} against the <code>JsonReader</code> decoding it replaced,
+ * both reading from the response bytes as they would from the connection's stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GaeStatusBenchmark {
+    @Param({"room-12", "room-48", "batch-32x48", "room-1000", "room-10000"})
+    public String payload;
+
+    private byte[] mBytes;
+    private boolean mBatch;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBytes = GaeStatusPayloads.load(payload);
+        mBatch = GaeStatusPayloads.isBatch(payload);
+
+        final ChecksumSink expected = new ChecksumSink();
+        final ChecksumSink actual = new ChecksumSink();
+        readWithJsonReader(expected);
+        readWithDecoder(actual);
+        if (expected.mRows != actual.mRows || expected.mChecksum != actual.mChecksum)
+            throw new IllegalStateException("Decoders disagree on " + payload);
+    }
+
+    @Benchmark
+    public long jsonReader() throws IOException {
+        final ChecksumSink sink = new ChecksumSink();
+        readWithJsonReader(sink);
+        return sink.mChecksum;
+    }
+
+    @Benchmark
+    public long decoder() throws IOException {
+        final ChecksumSink sink = new ChecksumSink();
+        readWithDecoder(sink);
+        return sink.mChecksum;
+    }
+
+    private void readWithJsonReader(@NotNull MachineSink sink) throws IOException {
+        final JsonReader reader = new JsonReader(
+              new InputStreamReader(new ByteArrayInputStream(mBytes))
+        );
+        if (mBatch)
+            JsonReaderStatusDecoder.readRooms(reader, new SingleSink(sink));
+        else
+            JsonReaderStatusDecoder.readRoom(reader, sink);
+    }
+
+    private void readWithDecoder(@NotNull MachineSink sink) throws IOException {
+        final GaeStatusDecoder decoder = new GaeStatusDecoder(new ByteArrayInputStream(mBytes));
+        if (mBatch)
+            decoder.readRooms(new SingleSink(sink));
+        else
+            decoder.readRoom(sink);
+    }
+
+    /**
+     * Sends every room of a batch to the same sink
+     */
+    private static final class SingleSink implements GaeStatusDecoder.RoomSinks {
+        @NotNull
+        private final MachineSink mSink;
+
+        SingleSink(@NotNull MachineSink sink) {
+            mSink = sink;
+        }
+
+        @NotNull
+        @Override
+        public MachineSink sinkFor(long roomId) {
+            return mSink;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.Charset;
+
+/**
+ * Status server responses for the benchmarks to decode. A payload is either
+ * <code>room-&lt;machines&gt;</code>, one <code>/status/{roomId}</code> array, or
+ * <code>batch-&lt;rooms&gt;x&lt;machines&gt;</code>, one <code>/status?rooms=</code> object.
+ */
+final class GaeStatusPayloads {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ROOM = "room-";
+    private static final String BATCH = "batch-";
+
+    private static final String[] TYPES = {"Washer", "Front Load Washer", "Dryer", "Stacked Dryer"};
+    private static final String[] STATUSES = {"Available", "In Use", "Cycle Complete", "Unavailable"};
+
+    private GaeStatusPayloads() {
+    }
+
+    static boolean isBatch(@NotNull String payload) {
+        return payload.startsWith(BATCH);
+    }
+
+    @NotNull
+    static byte[] load(@NotNull String payload) {
+        final StringBuilder builder = new StringBuilder();
+        if (payload.startsWith(ROOM)) {
+            appendRoom(builder, 0, Integer.parseInt(payload.substring(ROOM.length())));
+        } else if (payload.startsWith(BATCH)) {
+            final String[] sizes = payload.substring(BATCH.length()).split("x");
+            final int rooms = Integer.parseInt(sizes[0]);
+            final int machines = Integer.parseInt(sizes[1]);
+            builder.append('{');
+            for (int i = 0; i < rooms; i++) {
+                if (i != 0)
+                    builder.append(',');
+                builder.append('"').append(1400 + i).append("\":");
+                appendRoom(builder, i, machines);
+            }
+            builder.append('}');
+        } else {
+            throw new IllegalArgumentException("Unknown payload " + payload);
+        }
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    private static void appendRoom(@NotNull StringBuilder builder, int room, int machines) {
+        builder.append('[');
+        for (int i = 0; i < machines; i++) {
+            final int status = (i * 7 + room) % STATUSES.length;
+            if (i != 0)
+                builder.append(',');
+            builder.append("{\"esuds_id\":").append(230000 + room * 1000 + i)
+                  .append(",\"number\":").append(i + 1)
+                  .append(",\"type\":\"").append(TYPES[i % TYPES.length])
+                  .append("\",\"status\":\"").append(STATUSES[status])
+                  .append("\",\"timeRemaining\":").append(status == 1 ? 60000 * (1 + i % 60) : -1)
+                  .append('}');
+        }
+        builder.append(']');
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import com.google.gson.stream.JsonReader;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+import static net.zdremann.wc.io.rooms.MachineSink.*;
+
+/**
+ * The decoding <code>GaeMachineGetter</code> did before {@link GaeStatusDecoder}, kept as a
+ * baseline. Gson's <code>JsonReader</code> stands in for <code>android.util.JsonReader</code>,
+ * which was copied from it.
+ */
+final class JsonReaderStatusDecoder {
+    private JsonReaderStatusDecoder() {
+    }
+
+    static void readRooms(
+          @NotNull JsonReader reader,
+          @NotNull GaeStatusDecoder.RoomSinks sinks) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final long roomId;
+            try {
+                roomId = Long.parseLong(reader.nextName());
+            } catch (NumberFormatException e) {
+                reader.skipValue();
+                continue;
+            }
+            final MachineSink sink = sinks.sinkFor(roomId);
+            if (sink != null)
+                readRoom(reader, sink);
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+    }
+
+    static void readRoom(@NotNull JsonReader reader, @NotNull MachineSink sink) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            long esudsId = NO_ESUDS_ID;
+            long timeRemaining = NO_TIME_REMAINING;
+            int status = STATUS_UNKNOWN;
+            int number = -1;
+            int type = TYPE_UNKNOWN;
+            while (reader.hasNext()) {
+                String nextName = reader.nextName();
+                switch (nextName) {
+                case "esuds_id":
+                    esudsId = reader.nextLong();
+                    break;
+                case "number":
+                    number = reader.nextInt();
+                    break;
+                case "status":
+                    String statusStr = reader.nextString();
+                    if ("Available".equalsIgnoreCase(statusStr))
+                        status = STATUS_AVAILABLE;
+                    else if ("Cycle Complete".equalsIgnoreCase(statusStr))
+                        status = STATUS_CYCLE_COMPLETE;
+                    else if ("In Use".equalsIgnoreCase(statusStr))
+                        status = STATUS_IN_USE;
+                    else
+                        status = STATUS_UNAVAILABLE;
+                    break;
+                case "type":
+                    String typeName = reader.nextString();
+                    if (typeName.toLowerCase().contains("washer"))
+                        type = TYPE_WASHER;
+                    else if (typeName.toLowerCase().contains("dryer"))
+                        type = TYPE_DRYER;
+                    else
+                        type = TYPE_UNKNOWN;
+                    break;
+                case "timeRemaining":
+                    timeRemaining = reader.nextLong();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+                }
+            }
+            reader.endObject();
+
+            sink.add(type, number, esudsId, status, timeRemaining);
+        }
+        reader.endArray();
+    }
+}
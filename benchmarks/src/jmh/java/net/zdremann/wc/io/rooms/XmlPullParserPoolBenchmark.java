@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2013. Zachary Dremann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.zdremann.wc.io.rooms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of getting a parser ready for one room refresh, without any parsing: a new factory
+ * and parser every time, a cached factory, and an {@link XmlPullParserPool}. Run with
+ * <code>-t</code> to see the pool shared between threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XmlPullParserPoolBenchmark {
+    private static final String DOCUMENT = "<html/>";
+
+    private final XmlPullParserPool mPool = new XmlPullParserPool();
+    private final XmlPullParserFactory mFactory;
+
+    public XmlPullParserPoolBenchmark() {
+        try {
+            mFactory = XmlPullParserFactory.newInstance();
+        } catch (XmlPullParserException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public int newFactory() throws Exception {
+        final XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new StringReader(DOCUMENT));
+        return parser.next();
+    }
+
+    @Benchmark
+    public int cachedFactory() throws Exception {
+        final XmlPullParser parser = mFactory.newPullParser();
+        parser.setInput(new StringReader(DOCUMENT));
+        return parser.next();
+    }
+
+    @Benchmark
+    public int pooled() throws Exception {
+        final XmlPullParser parser = mPool.acquire(new StringReader(DOCUMENT));
+        try {
+            return parser.next();
+        } finally {
+            mPool.release(parser);
+        }
+    }
+}